@@ -0,0 +1,276 @@
+package fr.g123k.deviceapps;
+
+import android.content.pm.LauncherActivityInfo;
+import android.content.pm.LauncherApps;
+import android.os.Build;
+import android.os.Handler;
+import android.os.UserHandle;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory cache of the apps installed on each profile.
+ * A profile is fully enumerated only once, then only the packages invalidated are queried again.
+ * Package broadcasts are only received for the profile of the app: packages are invalidated per
+ * profile by a {@link LauncherApps.Callback} (see {@link #register(LauncherApps, Handler)}).
+ */
+class AppsCatalog {
+
+    private final Map<UserHandle, ProfileCatalog> profiles;
+    private final Metrics metrics;
+    private LauncherApps.Callback launcherAppsCallback;
+
+    AppsCatalog(Metrics metrics) {
+        this.profiles = new ConcurrentHashMap<>();
+        this.metrics = metrics;
+    }
+
+    List<Entry> getEntries(LauncherApps launcherApps, UserHandle profile, EntryFactory factory) {
+        Map<String, List<Entry>> packages = getPackages(launcherApps, profile, factory);
+
+        List<Entry> entries = new ArrayList<>(packages.size());
+        for (List<Entry> packageEntries : packages.values()) {
+            entries.addAll(packageEntries);
+        }
+        return entries;
+    }
+
+    /**
+     * Entries of the profile, indexed by package name (in the enumeration order)
+     */
+    Map<String, List<Entry>> getPackages(LauncherApps launcherApps, UserHandle profile, EntryFactory factory) {
+        return getProfileCatalog(profile).getPackages(launcherApps, factory);
+    }
+
+    /**
+     * Entries of the given packages only (packages not installed on the profile are missing),
+     * without copying the whole index
+     */
+    Map<String, List<Entry>> getPackages(LauncherApps launcherApps, UserHandle profile, EntryFactory factory, Collection<String> packageNames) {
+        return getProfileCatalog(profile).getPackages(launcherApps, factory, packageNames);
+    }
+
+    /**
+     * Whether the profile has already been fully enumerated
+     */
+    boolean isLoaded(UserHandle profile) {
+        ProfileCatalog catalog = profiles.get(profile);
+        return catalog != null && catalog.loaded;
+    }
+
+    private ProfileCatalog getProfileCatalog(UserHandle profile) {
+        ProfileCatalog catalog = profiles.get(profile);
+
+        if (catalog == null) {
+            ProfileCatalog newCatalog = new ProfileCatalog(profile, metrics);
+            catalog = profiles.putIfAbsent(profile, newCatalog);
+            if (catalog == null) {
+                catalog = newCatalog;
+            }
+        }
+
+        return catalog;
+    }
+
+    /**
+     * Receives the changes of packages of all the profiles
+     */
+    void register(LauncherApps launcherApps, Handler handler) {
+        if (launcherAppsCallback != null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+
+        launcherAppsCallback = new LauncherApps.Callback() {
+            @Override
+            public void onPackageRemoved(String packageName, UserHandle user) {
+                invalidatePackage(packageName, user);
+            }
+
+            @Override
+            public void onPackageAdded(String packageName, UserHandle user) {
+                invalidatePackage(packageName, user);
+            }
+
+            @Override
+            public void onPackageChanged(String packageName, UserHandle user) {
+                invalidatePackage(packageName, user);
+            }
+
+            @Override
+            public void onPackagesAvailable(String[] packageNames, UserHandle user, boolean replacing) {
+                for (String packageName : packageNames) {
+                    invalidatePackage(packageName, user);
+                }
+            }
+
+            @Override
+            public void onPackagesUnavailable(String[] packageNames, UserHandle user, boolean replacing) {
+                for (String packageName : packageNames) {
+                    invalidatePackage(packageName, user);
+                }
+            }
+        };
+        launcherApps.registerCallback(launcherAppsCallback, handler);
+    }
+
+    void unregister(LauncherApps launcherApps) {
+        if (launcherAppsCallback != null) {
+            launcherApps.unregisterCallback(launcherAppsCallback);
+            launcherAppsCallback = null;
+        }
+    }
+
+    /**
+     * The package will be queried again on the next call for this {@code profile}
+     */
+    void invalidatePackage(String packageName, UserHandle profile) {
+        ProfileCatalog catalog = profiles.get(profile);
+        if (catalog != null) {
+            catalog.dirtyPackages.add(packageName);
+        }
+    }
+
+    /**
+     * The {@code profile} will be fully enumerated again on the next call (eg: a paused profile
+     * lists no app)
+     */
+    void invalidateProfile(UserHandle profile) {
+        profiles.remove(profile);
+    }
+
+    /**
+     * Forgets the profiles which are not in {@code currentProfiles} anymore
+     */
+    void retainProfiles(Collection<UserHandle> currentProfiles) {
+        profiles.keySet().retainAll(currentProfiles);
+    }
+
+    void clear() {
+        profiles.clear();
+    }
+
+    interface EntryFactory {
+
+        /**
+         * The returned list must be in the same order as {@code activities}
+         */
+        List<Entry> createEntries(List<LauncherActivityInfo> activities);
+
+    }
+
+    static class Entry {
+
+        final LauncherActivityInfo activityInfo;
+        final Map<String, Object> data;
+
+        // Lazily computed, on the first query
+        volatile AppsQuery.IndexedApp indexedApp;
+
+        Entry(LauncherActivityInfo activityInfo, Map<String, Object> data) {
+            this.activityInfo = activityInfo;
+            this.data = data;
+        }
+
+    }
+
+    private static class ProfileCatalog {
+
+        private final UserHandle profile;
+        private final Metrics metrics;
+        private final Set<String> dirtyPackages;
+        private Map<String, List<Entry>> packages;
+        private volatile boolean loaded;
+
+        ProfileCatalog(UserHandle profile, Metrics metrics) {
+            this.profile = profile;
+            this.metrics = metrics;
+            this.dirtyPackages = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        }
+
+        synchronized Map<String, List<Entry>> getPackages(LauncherApps launcherApps, EntryFactory factory) {
+            refresh(launcherApps, factory);
+
+            // Lists are never modified once created, only replaced
+            return new LinkedHashMap<>(packages);
+        }
+
+        synchronized Map<String, List<Entry>> getPackages(LauncherApps launcherApps, EntryFactory factory, Collection<String> packageNames) {
+            refresh(launcherApps, factory);
+
+            Map<String, List<Entry>> result = new HashMap<>(packageNames.size());
+            for (String packageName : packageNames) {
+                List<Entry> entries = packages.get(packageName);
+                if (entries != null) {
+                    result.put(packageName, entries);
+                }
+            }
+            return result;
+        }
+
+        private void refresh(LauncherApps launcherApps, EntryFactory factory) {
+            if (packages == null) {
+                // Events received before a full enumeration are meaningless
+                dirtyPackages.clear();
+
+                Metrics.Span span = metrics.startStage(Metrics.STAGE_CATALOG_LOAD);
+                try {
+                    // Only kept once complete (the load may be cancelled)
+                    Map<String, List<Entry>> loadedPackages = new LinkedHashMap<>();
+
+                    metrics.countBinderCall(Metrics.BINDER_GET_ACTIVITY_LIST);
+                    for (Entry entry : factory.createEntries(launcherApps.getActivityList(null, profile))) {
+                        String packageName = entry.activityInfo.getApplicationInfo().packageName;
+                        List<Entry> entries = loadedPackages.get(packageName);
+                        if (entries == null) {
+                            entries = new ArrayList<>(1);
+                            loadedPackages.put(packageName, entries);
+                        }
+                        entries.add(entry);
+                    }
+
+                    packages = loadedPackages;
+                    loaded = true;
+                } finally {
+                    span.end();
+                }
+            } else if (!dirtyPackages.isEmpty()) {
+                Iterator<String> iterator = dirtyPackages.iterator();
+                while (iterator.hasNext()) {
+                    String packageName = iterator.next();
+                    iterator.remove();
+                    try {
+                        refreshPackage(launcherApps, factory, packageName);
+                    } catch (RuntimeException e) {
+                        // Refreshed by the next call
+                        dirtyPackages.add(packageName);
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        private void refreshPackage(LauncherApps launcherApps, EntryFactory factory, String packageName) {
+            metrics.countBinderCall(Metrics.BINDER_GET_ACTIVITY_LIST);
+            List<LauncherActivityInfo> activities = launcherApps.getActivityList(packageName, profile);
+
+            if (activities.isEmpty()) {
+                packages.remove(packageName);
+                return;
+            }
+
+            // An updated package keeps its position, a new one is appended
+            packages.put(packageName, factory.createEntries(activities));
+        }
+
+    }
+
+}
@@ -0,0 +1,213 @@
+package fr.g123k.deviceapps;
+
+import android.content.Context;
+import android.content.pm.ChangedPackages;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.provider.Settings;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Computes the packages changed since a token previously returned.
+ * On Android 8.0+, the sequence number of {@link PackageManager#getChangedPackages(int)} is used
+ * (only changed packages are queried). On older versions, the current packages are compared with
+ * a snapshot retained in memory.
+ * When a token can't be used (unknown, or from a previous boot), {@link Changes#reset} is true
+ * and the whole list has to be sent again.
+ * On Android 11+, a package which can't be found is not reported as removed: it may only be
+ * hidden by the package visibility (see {@code <queries>} in the AndroidManifest).
+ */
+class AppsChangesTracker {
+
+    private static final String LOG_TAG = "DEVICE_APPS";
+    private static final String SEQUENCE_TOKEN_PREFIX = "c";
+    private static final String SNAPSHOT_TOKEN_PREFIX = "s";
+    private static final String TOKEN_SEPARATOR = ":";
+    private static final int MAX_SNAPSHOTS = 4;
+
+    private final Context context;
+    private final Metrics metrics;
+
+    // Only a few snapshots are kept (most clients only use their last token)
+    private final LinkedHashMap<String, Map<String, Long>> snapshots;
+
+    // Last sequence number read during this boot (-1 if none)
+    private int lastBootCount = -1;
+    private int lastSequenceNumber = -1;
+
+    AppsChangesTracker(Context context, Metrics metrics) {
+        this.context = context;
+        this.metrics = metrics;
+        this.snapshots = new LinkedHashMap<String, Map<String, Long>>(MAX_SNAPSHOTS + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, Long>> eldest) {
+                return size() > MAX_SNAPSHOTS;
+            }
+        };
+    }
+
+    Changes getChangesSince(String token, SnapshotProvider snapshotProvider) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return getChangedPackagesSince(token);
+        }
+
+        return getSnapshotChangesSince(token, snapshotProvider);
+    }
+
+    private Changes getChangedPackagesSince(String token) {
+        PackageManager packageManager = context.getPackageManager();
+        int bootCount = Settings.Global.getInt(context.getContentResolver(), Settings.Global.BOOT_COUNT, 0);
+        long now = System.currentTimeMillis();
+
+        String[] parts = TextUtils.isEmpty(token) ? null : token.split(TOKEN_SEPARATOR);
+        int sequenceNumber = -1;
+        long tokenTime = 0;
+        if (parts != null && parts.length == 4 && SEQUENCE_TOKEN_PREFIX.equals(parts[0])) {
+            try {
+                // Sequence numbers are reset on each boot
+                if (Integer.parseInt(parts[1]) == bootCount) {
+                    sequenceNumber = Integer.parseInt(parts[2]);
+                    tokenTime = Long.parseLong(parts[3]);
+                }
+            } catch (NumberFormatException e) {
+                Log.w(LOG_TAG, "Invalid changes token \"" + token + "\"");
+            }
+        }
+
+        // Without a valid token, only the current sequence number is needed. It can only be read
+        // with the packages changed since a previous number: since the last one read during
+        // this boot if any, otherwise all the packages changed since the boot (once per process)
+        int fromSequenceNumber = sequenceNumber >= 0 ? sequenceNumber : getLastSequenceNumber(bootCount);
+
+        metrics.countBinderCall(Metrics.BINDER_GET_CHANGED_PACKAGES);
+        ChangedPackages changedPackages = packageManager.getChangedPackages(fromSequenceNumber);
+        int newSequenceNumber = changedPackages != null ? changedPackages.getSequenceNumber() : fromSequenceNumber;
+        setLastSequenceNumber(bootCount, newSequenceNumber);
+        String newToken = SEQUENCE_TOKEN_PREFIX + TOKEN_SEPARATOR + bootCount + TOKEN_SEPARATOR + newSequenceNumber + TOKEN_SEPARATOR + now;
+
+        if (sequenceNumber < 0) {
+            return Changes.reset(newToken);
+        }
+
+        Changes changes = new Changes(newToken, false);
+        if (changedPackages == null) {
+            return changes;
+        }
+
+        for (String packageName : changedPackages.getPackageNames()) {
+            try {
+                metrics.countBinderCall(Metrics.BINDER_GET_PACKAGE_INFO);
+                PackageInfo packageInfo = packageManager.getPackageInfo(packageName, 0);
+                if (packageInfo.firstInstallTime >= tokenTime) {
+                    changes.added.add(packageName);
+                } else {
+                    changes.updated.add(packageName);
+                }
+            } catch (PackageManager.NameNotFoundException e) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                    // Uninstalled, or not visible to this app: it can't be told apart
+                    continue;
+                }
+                changes.removed.add(packageName);
+            }
+        }
+        return changes;
+    }
+
+    private synchronized int getLastSequenceNumber(int bootCount) {
+        return bootCount == lastBootCount ? Math.max(0, lastSequenceNumber) : 0;
+    }
+
+    private synchronized void setLastSequenceNumber(int bootCount, int sequenceNumber) {
+        if (bootCount != lastBootCount || sequenceNumber > lastSequenceNumber) {
+            lastBootCount = bootCount;
+            lastSequenceNumber = sequenceNumber;
+        }
+    }
+
+    private Changes getSnapshotChangesSince(String token, SnapshotProvider snapshotProvider) {
+        Map<String, Long> snapshot = snapshotProvider.takeSnapshot();
+        String newToken = SNAPSHOT_TOKEN_PREFIX + TOKEN_SEPARATOR + UUID.randomUUID().toString();
+
+        Map<String, Long> previousSnapshot;
+        synchronized (snapshots) {
+            previousSnapshot = TextUtils.isEmpty(token) ? null : snapshots.get(token);
+            snapshots.put(newToken, snapshot);
+        }
+
+        if (previousSnapshot == null) {
+            return Changes.reset(newToken);
+        }
+
+        Changes changes = new Changes(newToken, false);
+        for (Map.Entry<String, Long> entry : snapshot.entrySet()) {
+            Long previousUpdateTime = previousSnapshot.get(entry.getKey());
+            if (previousUpdateTime == null) {
+                changes.added.add(entry.getKey());
+            } else if (!previousUpdateTime.equals(entry.getValue())) {
+                changes.updated.add(entry.getKey());
+            }
+        }
+
+        for (String packageName : previousSnapshot.keySet()) {
+            if (!snapshot.containsKey(packageName)) {
+                changes.removed.add(packageName);
+            }
+        }
+        return changes;
+    }
+
+    void clear() {
+        synchronized (snapshots) {
+            snapshots.clear();
+        }
+
+        synchronized (this) {
+            lastBootCount = -1;
+            lastSequenceNumber = -1;
+        }
+    }
+
+    interface SnapshotProvider {
+
+        /**
+         * Returns the last update time of each package currently installed
+         */
+        Map<String, Long> takeSnapshot();
+
+    }
+
+    static class Changes {
+
+        final String token;
+
+        // When true, all the apps have to be sent
+        final boolean reset;
+
+        final Set<String> added;
+        final Set<String> updated;
+        final Set<String> removed;
+
+        Changes(String token, boolean reset) {
+            this.token = token;
+            this.reset = reset;
+            this.added = new HashSet<>();
+            this.updated = new HashSet<>();
+            this.removed = new HashSet<>();
+        }
+
+        static Changes reset(String token) {
+            return new Changes(token, true);
+        }
+
+    }
+
+}
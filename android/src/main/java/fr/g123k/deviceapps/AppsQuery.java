@@ -0,0 +1,278 @@
+package fr.g123k.deviceapps;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import fr.g123k.deviceapps.utils.AppDataConstants;
+
+/**
+ * Search, filters and sort of the apps of a profile.
+ * Apps are matched against an {@link IndexedApp} (normalized label and package name), which is
+ * computed once per catalog entry: a query is a single pass over the index, and only the
+ * requested page is sorted (with a bounded heap).
+ */
+class AppsQuery {
+
+    /**
+     * Fields required to build the index
+     */
+    static final Set<String> INDEX_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            AppDataConstants.APP_NAME,
+            AppDataConstants.SYSTEM_APP,
+            AppDataConstants.IS_ENABLED,
+            AppDataConstants.CATEGORY,
+            AppDataConstants.INSTALL_TIME,
+            AppDataConstants.UPDATE_TIME
+    )));
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    private final String text;
+    private final String wordText;
+    private final boolean prefix;
+    private final Integer category;
+    private final boolean includeSystemApps;
+    private final Boolean enabled;
+    private final Sort sort;
+    private final boolean descending;
+    private final int offset;
+    private final int limit;
+
+    /**
+     * @param text      Searched in the label and the package name (all apps if empty)
+     * @param prefix    If true, the label (or one of its words) or the package name must start
+     *                  with the {@code text}, otherwise they must contain it
+     * @param category  Only apps of this category (all if null)
+     * @param enabled   Only enabled (or disabled) apps (all if null)
+     * @param limit     Max number of apps (no limit if <= 0)
+     */
+    AppsQuery(String text,
+              boolean prefix,
+              Integer category,
+              boolean includeSystemApps,
+              Boolean enabled,
+              Sort sort,
+              boolean descending,
+              int offset,
+              int limit) {
+        this.text = text != null ? normalize(text) : "";
+        this.wordText = " " + this.text;
+        this.prefix = prefix;
+        this.category = category;
+        this.includeSystemApps = includeSystemApps;
+        this.enabled = enabled;
+        this.sort = sort;
+        this.descending = descending;
+        this.offset = Math.max(0, offset);
+        this.limit = limit;
+    }
+
+    /**
+     * Lowercase, without accents
+     */
+    static String normalize(String label) {
+        String decomposed = Normalizer.normalize(label, Normalizer.Form.NFD);
+        return DIACRITICS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    Result select(List<IndexedApp> apps) {
+        Comparator<IndexedApp> comparator = getComparator();
+
+        int total = 0;
+        List<IndexedApp> matchingApps = new ArrayList<>();
+        PriorityQueue<IndexedApp> topApps = null;
+        int maxSize = limit > 0 ? offset + limit : Integer.MAX_VALUE;
+
+        if (limit > 0) {
+            // The head is the worst app kept
+            topApps = new PriorityQueue<>(Math.min(maxSize, 256), Collections.reverseOrder(comparator));
+        }
+
+        for (IndexedApp app : apps) {
+            if (!matches(app)) {
+                continue;
+            }
+
+            total++;
+            if (topApps == null) {
+                matchingApps.add(app);
+            } else if (topApps.size() < maxSize) {
+                topApps.add(app);
+            } else if (comparator.compare(app, topApps.peek()) < 0) {
+                topApps.poll();
+                topApps.add(app);
+            }
+        }
+
+        if (topApps != null) {
+            matchingApps.addAll(topApps);
+        }
+        Collections.sort(matchingApps, comparator);
+
+        List<AppsCatalog.Entry> entries = new ArrayList<>(Math.max(0, matchingApps.size() - offset));
+        for (int i = offset; i < matchingApps.size(); i++) {
+            entries.add(matchingApps.get(i).entry);
+        }
+        return new Result(entries, total);
+    }
+
+    private boolean matches(IndexedApp app) {
+        if (!includeSystemApps && app.systemApp) {
+            return false;
+        }
+        if (enabled != null && enabled != app.enabled) {
+            return false;
+        }
+        if (category != null && category != app.category) {
+            return false;
+        }
+        if (text.isEmpty()) {
+            return true;
+        }
+
+        if (prefix) {
+            return app.label.startsWith(text)
+                    || app.label.contains(wordText)
+                    || app.packageName.startsWith(text);
+        }
+        return app.label.contains(text) || app.packageName.contains(text);
+    }
+
+    private Comparator<IndexedApp> getComparator() {
+        final Comparator<IndexedApp> comparator;
+
+        switch (sort) {
+            case PACKAGE_NAME:
+                comparator = new Comparator<IndexedApp>() {
+                    @Override
+                    public int compare(IndexedApp app1, IndexedApp app2) {
+                        return app1.packageName.compareTo(app2.packageName);
+                    }
+                };
+                break;
+            case INSTALL_TIME:
+                comparator = new Comparator<IndexedApp>() {
+                    @Override
+                    public int compare(IndexedApp app1, IndexedApp app2) {
+                        return compareLongs(app1.installTime, app2.installTime);
+                    }
+                };
+                break;
+            case UPDATE_TIME:
+                comparator = new Comparator<IndexedApp>() {
+                    @Override
+                    public int compare(IndexedApp app1, IndexedApp app2) {
+                        return compareLongs(app1.updateTime, app2.updateTime);
+                    }
+                };
+                break;
+            case LABEL:
+            default:
+                comparator = new Comparator<IndexedApp>() {
+                    @Override
+                    public int compare(IndexedApp app1, IndexedApp app2) {
+                        return app1.label.compareTo(app2.label);
+                    }
+                };
+                break;
+        }
+
+        // The package name makes the order stable between two queries
+        return new Comparator<IndexedApp>() {
+            @Override
+            public int compare(IndexedApp app1, IndexedApp app2) {
+                int result = comparator.compare(app1, app2);
+                if (result == 0) {
+                    result = app1.packageName.compareTo(app2.packageName);
+                }
+                return descending ? -result : result;
+            }
+        };
+    }
+
+    private static int compareLongs(long value1, long value2) {
+        return value1 < value2 ? -1 : (value1 == value2 ? 0 : 1);
+    }
+
+    enum Sort {
+        LABEL("label"),
+        PACKAGE_NAME("package_name"),
+        INSTALL_TIME("install_time"),
+        UPDATE_TIME("update_time");
+
+        final String name;
+
+        Sort(String name) {
+            this.name = name;
+        }
+
+        static Sort fromName(String name) {
+            for (Sort sort : values()) {
+                if (sort.name.equals(name)) {
+                    return sort;
+                }
+            }
+            return LABEL;
+        }
+    }
+
+    /**
+     * Values of an entry used by queries, computed once from the {@link #INDEX_FIELDS}
+     */
+    static class IndexedApp {
+
+        final AppsCatalog.Entry entry;
+        final String label;
+        final String packageName;
+        final boolean systemApp;
+        final boolean enabled;
+        final int category;
+        final long installTime;
+        final long updateTime;
+
+        IndexedApp(AppsCatalog.Entry entry, Map<String, Object> data) {
+            this.entry = entry;
+            this.label = normalize(String.valueOf(data.get(AppDataConstants.APP_NAME)));
+            this.packageName = String.valueOf(data.get(AppDataConstants.PACKAGE_NAME)).toLowerCase(Locale.ROOT);
+            this.systemApp = Boolean.TRUE.equals(data.get(AppDataConstants.SYSTEM_APP));
+            this.enabled = Boolean.TRUE.equals(data.get(AppDataConstants.IS_ENABLED));
+            this.category = getInt(data.get(AppDataConstants.CATEGORY), -1);
+            this.installTime = getLong(data.get(AppDataConstants.INSTALL_TIME));
+            this.updateTime = getLong(data.get(AppDataConstants.UPDATE_TIME));
+        }
+
+        private static int getInt(Object value, int defaultValue) {
+            return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+        }
+
+        private static long getLong(Object value) {
+            return value instanceof Number ? ((Number) value).longValue() : 0;
+        }
+
+    }
+
+    static class Result {
+
+        final List<AppsCatalog.Entry> entries;
+
+        // Number of matching apps (without the offset and the limit)
+        final int total;
+
+        Result(List<AppsCatalog.Entry> entries, int total) {
+            this.entries = entries;
+            this.total = total;
+        }
+
+    }
+
+}
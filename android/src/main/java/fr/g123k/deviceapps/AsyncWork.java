@@ -1,25 +1,266 @@
 package fr.g123k.deviceapps;
 
-import java.util.concurrent.BlockingQueue;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Background work, run in two lanes: short requests (on a few packages) never wait behind
+ * enumerations, which run on a lower priority thread.
+ * Tasks can be cancelled: cancellation is checked between items by {@link #map} and
+ * {@link #mapConcurrently} (a {@link CancellationException} is then thrown).
+ */
 class AsyncWork {
 
-    private final ThreadPoolExecutor threadPoolExecutor;
-    private final BlockingQueue<Runnable> workQueue;
+    private static final String LOG_TAG = "DEVICE_APPS";
+    private static final int PARALLELISM = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    // Task run by the current thread (also set on the workers of this task)
+    private static final ThreadLocal<Task> CURRENT_TASK = new ThreadLocal<>();
+
+    private final ThreadPoolExecutor interactiveExecutor;
+    private final ThreadPoolExecutor bulkExecutor;
+    private final ThreadPoolExecutor parallelExecutor;
+    private final ThreadPoolExecutor concurrentExecutor;
+    private final Set<Task> activeTasks;
 
     AsyncWork() {
-        this.workQueue = new LinkedBlockingQueue<>();
-        this.threadPoolExecutor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, workQueue);
+        this.interactiveExecutor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        this.bulkExecutor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "device_apps_bulk");
+            }
+        });
+        this.parallelExecutor = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        this.parallelExecutor.allowCoreThreadTimeOut(true);
+        this.concurrentExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 1, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        this.activeTasks = Collections.newSetFromMap(new ConcurrentHashMap<Task, Boolean>());
+    }
+
+    void run(Lane lane, Runnable runnable) {
+        run(lane, null, runnable, null);
+    }
+
+    void run(Lane lane, Runnable runnable, ErrorHandler errorHandler) {
+        run(lane, null, runnable, errorHandler);
+    }
+
+    Task run(Lane lane, Integer id, Runnable runnable) {
+        return run(lane, id, runnable, null);
+    }
+
+    /**
+     * The task can be cancelled with {@link #cancel(int)} if it has an {@code id}.
+     * {@code runnable} has to catch the {@link CancellationException} to send a result.
+     * Other exceptions are given to {@code errorHandler} (or logged without one): they must not
+     * kill the worker thread (and the app with it)
+     */
+    Task run(Lane lane, Integer id, final Runnable runnable, final ErrorHandler errorHandler) {
+        final Task task = new Task(id);
+        activeTasks.add(task);
+
+        Runnable taskRunnable = new Runnable() {
+            @Override
+            public void run() {
+                CURRENT_TASK.set(task);
+                try {
+                    runnable.run();
+                } catch (CancellationException e) {
+                    // Cancelled on detach: nobody is waiting for the result anymore
+                } catch (RuntimeException e) {
+                    if (errorHandler != null) {
+                        errorHandler.onError(e);
+                    } else {
+                        Log.e(LOG_TAG, "Background task failed", e);
+                    }
+                } finally {
+                    CURRENT_TASK.remove();
+                    activeTasks.remove(task);
+                }
+            }
+        };
+
+        try {
+            (lane == Lane.INTERACTIVE ? interactiveExecutor : bulkExecutor).execute(taskRunnable);
+        } catch (RejectedExecutionException e) {
+            // Stopped: the work is dropped
+            task.cancel();
+            activeTasks.remove(task);
+        }
+        return task;
+    }
+
+    /**
+     * Returns false if there is no pending or running task with this {@code id}
+     */
+    boolean cancel(int id) {
+        boolean cancelled = false;
+        for (Task task : activeTasks) {
+            if (task.id != null && task.id == id) {
+                task.cancel();
+                cancelled = true;
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Throws a {@link CancellationException} if the task of the current thread has been cancelled
+     */
+    static void throwIfCancelled() {
+        Task task = CURRENT_TASK.get();
+        if (task != null && task.isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Applies {@code mapper} to every item, on a worker pool sized to the number of cores if
+     * {@code parallel} is true.
+     * The order of the results always matches the order of {@code items}.
+     * Must not be called from the parallel pool itself.
+     */
+    <T, R> List<R> map(List<T> items, final Mapper<T, R> mapper, boolean parallel) {
+        if (!parallel || items.size() < 2) {
+            List<R> results = new ArrayList<>(items.size());
+            for (T item : items) {
+                throwIfCancelled();
+                results.add(mapper.map(item));
+            }
+            return results;
+        }
+
+        return invokeAll(parallelExecutor, items, mapper);
     }
 
-    void run(Runnable runnable) {
-        threadPoolExecutor.execute(runnable);
+    /**
+     * Applies {@code mapper} to every item, each item on its own thread.
+     * Meant for a few blocking items (eg: profiles), which may use {@link #map} themselves.
+     * The order of the results always matches the order of {@code items}.
+     */
+    <T, R> List<R> mapConcurrently(List<T> items, Mapper<T, R> mapper) {
+        if (items.size() < 2) {
+            return map(items, mapper, false);
+        }
+
+        return invokeAll(concurrentExecutor, items, mapper);
     }
 
+    private <T, R> List<R> invokeAll(ThreadPoolExecutor executor, List<T> items, final Mapper<T, R> mapper) {
+        // Workers check the cancellation of the calling task
+        final Task task = CURRENT_TASK.get();
+
+        List<Callable<R>> tasks = new ArrayList<>(items.size());
+        for (final T item : items) {
+            tasks.add(new Callable<R>() {
+                @Override
+                public R call() {
+                    CURRENT_TASK.set(task);
+                    try {
+                        throwIfCancelled();
+                        return mapper.map(item);
+                    } finally {
+                        CURRENT_TASK.remove();
+                    }
+                }
+            });
+        }
+
+        List<R> results = new ArrayList<>(items.size());
+        try {
+            for (Future<R> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for the workers");
+        } catch (RejectedExecutionException e) {
+            throw new CancellationException("Stopped");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+
+        return results;
+    }
+
+    /**
+     * Pending tasks are dropped and running ones are cancelled
+     */
     void stop() {
-        threadPoolExecutor.shutdown();
+        for (Task task : activeTasks) {
+            task.cancel();
+        }
+
+        interactiveExecutor.shutdownNow();
+        bulkExecutor.shutdownNow();
+        parallelExecutor.shutdownNow();
+        concurrentExecutor.shutdownNow();
+    }
+
+    enum Lane {
+
+        // Requests on a few packages, which must be answered quickly
+        INTERACTIVE,
+
+        // Enumerations of all the apps
+        BULK
+
+    }
+
+    static class Task {
+
+        final Integer id;
+        private volatile boolean cancelled;
+
+        Task(Integer id) {
+            this.id = id;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+    }
+
+    interface Mapper<T, R> {
+
+        R map(T item);
+
+    }
+
+    interface ErrorHandler {
+
+        void onError(RuntimeException e);
+
     }
 }
@@ -0,0 +1,190 @@
+package fr.g123k.deviceapps;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Apps of the main profile (all fields, without icons), persisted in a compact binary file to
+ * answer the first call after a restart without enumerating the apps.
+ * The token of {@link AppsChangesTracker} is saved with the apps, to check if the snapshot is
+ * still valid. Icons are not saved: the icon disk cache can be used with the update time of apps.
+ */
+class CatalogSnapshot {
+
+    private static final String LOG_TAG = "DEVICE_APPS";
+    private static final int MAGIC = 0x44415053;
+    private static final int VERSION = 1;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_STRING = 4;
+
+    // Null if the token can't be persisted (before Android 8.0)
+    final String token;
+
+    // Labels depend on the locale
+    final String locale;
+
+    final List<Map<String, Object>> apps;
+
+    CatalogSnapshot(String token, String locale, List<Map<String, Object>> apps) {
+        this.token = token;
+        this.locale = locale;
+        this.apps = apps;
+    }
+
+    /**
+     * Returns null if there is no snapshot (or if it can't be read)
+     */
+    static CatalogSnapshot read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                return null;
+            }
+
+            String token = input.readUTF();
+            String locale = input.readUTF();
+            int appsCount = input.readInt();
+            List<Map<String, Object>> apps = new ArrayList<>(appsCount);
+            for (int i = 0; i < appsCount; i++) {
+                int fieldsCount = input.readInt();
+                Map<String, Object> app = new HashMap<>(fieldsCount);
+                for (int j = 0; j < fieldsCount; j++) {
+                    app.put(input.readUTF(), readValue(input));
+                }
+                apps.add(app);
+            }
+
+            return new CatalogSnapshot(token.isEmpty() ? null : token, locale, apps);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to read the apps snapshot", e);
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    /**
+     * The file is replaced atomically. Values which are not booleans, numbers or strings are
+     * not saved
+     */
+    void write(File file) {
+        File tmpFile = new File(file.getPath() + ".tmp");
+
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(token != null ? token : "");
+            output.writeUTF(locale);
+            output.writeInt(apps.size());
+
+            for (Map<String, Object> app : apps) {
+                int fieldsCount = 0;
+                for (Object value : app.values()) {
+                    if (isSupported(value)) {
+                        fieldsCount++;
+                    }
+                }
+
+                output.writeInt(fieldsCount);
+                for (Map.Entry<String, Object> field : app.entrySet()) {
+                    if (isSupported(field.getValue())) {
+                        output.writeUTF(field.getKey());
+                        writeValue(output, field.getValue());
+                    }
+                }
+            }
+
+            output.close();
+            output = null;
+
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Unable to rename " + tmpFile.getName());
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to write the apps snapshot", e);
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+        } finally {
+            closeQuietly(output);
+        }
+    }
+
+    private static boolean isSupported(Object value) {
+        return value == null
+                || value instanceof Boolean
+                || value instanceof Integer
+                || value instanceof Long
+                || value instanceof String;
+    }
+
+    private static void writeValue(DataOutputStream output, Object value) throws IOException {
+        if (value == null) {
+            output.writeByte(TYPE_NULL);
+        } else if (value instanceof Boolean) {
+            output.writeByte(TYPE_BOOLEAN);
+            output.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            output.writeByte(TYPE_INT);
+            output.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            output.writeByte(TYPE_LONG);
+            output.writeLong((Long) value);
+        } else {
+            output.writeByte(TYPE_STRING);
+            output.writeUTF((String) value);
+        }
+    }
+
+    private static Object readValue(DataInputStream input) throws IOException {
+        byte type = input.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_BOOLEAN:
+                return input.readBoolean();
+            case TYPE_INT:
+                return input.readInt();
+            case TYPE_LONG:
+                return input.readLong();
+            case TYPE_STRING:
+                return input.readUTF();
+            default:
+                throw new IOException("Unknown type " + type);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // Nothing to do
+            }
+        }
+    }
+
+}
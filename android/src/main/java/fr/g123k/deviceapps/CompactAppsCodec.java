@@ -0,0 +1,437 @@
+package fr.g123k.deviceapps;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.MessageCodec;
+import io.flutter.plugin.common.StandardMessageCodec;
+
+/**
+ * Codec of the compact channel: requests are decoded with the standard codec, but lists of apps
+ * are sent column by column (instead of a map per app, repeating every key):
+ * <ul>
+ * <li>a string table, where keys and values are only written once (paths are split into a
+ * shared prefix and a suffix)</li>
+ * <li>a presence bitmap per column, then packed values: a bitmap for booleans, fixed-size
+ * ints/longs, indexes in the string table for strings</li>
+ * <li>icons as blobs, written after their lengths</li>
+ * </ul>
+ * All numbers are big-endian. Replies are encoded with {@link #encodeApps(List)} in the
+ * background, directly in the direct buffer which is sent as is.
+ * All the values of a column must have the same type (ints and longs are sent as longs), a
+ * column mixing types can't be encoded.
+ */
+class CompactAppsCodec implements MessageCodec<Object> {
+
+    static final CompactAppsCodec INSTANCE = new CompactAppsCodec();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int VERSION = 1;
+
+    private static final byte STATUS_APPS = 0;
+    private static final byte STATUS_ERROR = 1;
+
+    private static final byte TYPE_BOOLEAN = 0;
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_STRING = 3;
+    private static final byte TYPE_PATH = 4;
+    private static final byte TYPE_BYTES = 5;
+
+    private CompactAppsCodec() {
+    }
+
+    /**
+     * {@code message} has to be a {@link ByteBuffer} returned by {@link #encodeApps(List)} or
+     * {@link #encodeError(String, String)}
+     */
+    @Override
+    public ByteBuffer encodeMessage(Object message) {
+        if (message == null || message instanceof ByteBuffer) {
+            return (ByteBuffer) message;
+        }
+        throw new IllegalArgumentException("Replies must be encoded before being sent");
+    }
+
+    @Override
+    public Object decodeMessage(ByteBuffer message) {
+        return StandardMessageCodec.INSTANCE.decodeMessage(message);
+    }
+
+    static ByteBuffer encodeError(String errorCode, String errorMessage) {
+        byte[] encodedErrorCode = (errorCode != null ? errorCode : "").getBytes(UTF_8);
+        byte[] encodedErrorMessage = (errorMessage != null ? errorMessage : "").getBytes(UTF_8);
+
+        Output output = new Output(2 + 4 + encodedErrorCode.length + 4 + encodedErrorMessage.length);
+        output.writeByte(VERSION);
+        output.writeByte(STATUS_ERROR);
+        output.writeBytes(encodedErrorCode);
+        output.writeBytes(encodedErrorMessage);
+        return output.toByteBuffer();
+    }
+
+    /**
+     * Throws an {@link IllegalArgumentException} if a field can't be encoded (unsupported type,
+     * or values of different types)
+     */
+    static ByteBuffer encodeApps(List<Map<String, Object>> apps) {
+        int rowsCount = apps.size();
+
+        Map<String, Object[]> columns = new LinkedHashMap<>();
+        for (int row = 0; row < rowsCount; row++) {
+            for (Map.Entry<String, Object> field : apps.get(row).entrySet()) {
+                if (field.getValue() == null) {
+                    continue;
+                }
+
+                Object[] values = columns.get(field.getKey());
+                if (values == null) {
+                    values = new Object[rowsCount];
+                    columns.put(field.getKey(), values);
+                }
+                values[row] = field.getValue();
+            }
+        }
+
+        // Strings are interned with the columns, the string table being sent first
+        StringTable strings = new StringTable();
+        List<Column> encodedColumns = new ArrayList<>(columns.size());
+        for (Map.Entry<String, Object[]> column : columns.entrySet()) {
+            byte type = getType(column.getKey(), column.getValue());
+            encodedColumns.add(new Column(strings.intern(column.getKey()), type, column.getValue(), strings));
+        }
+
+        // The exact size is known: the buffer never grows
+        int size = 1 + 1 + 4 + strings.getSize() + 4;
+        for (Column column : encodedColumns) {
+            size += column.getSize();
+        }
+
+        Output output = new Output(size);
+        output.writeByte(VERSION);
+        output.writeByte(STATUS_APPS);
+        output.writeInt(rowsCount);
+
+        output.writeInt(strings.values.size());
+        for (byte[] value : strings.values) {
+            output.writeBytes(value);
+        }
+
+        output.writeInt(encodedColumns.size());
+        for (Column column : encodedColumns) {
+            column.write(output);
+        }
+        return output.toByteBuffer();
+    }
+
+    private static byte getType(String key, Object[] values) {
+        Byte type = null;
+        for (Object value : values) {
+            if (value == null) {
+                continue;
+            }
+
+            byte valueType = getValueType(key, value);
+            if (type == null || type == valueType) {
+                type = valueType;
+            } else if (isNumber(type) && isNumber(valueType)) {
+                type = TYPE_LONG;
+            } else if (isString(type) && isString(valueType)) {
+                // Only paths can be split
+                type = TYPE_STRING;
+            } else {
+                throw new IllegalArgumentException("Field " + key + " mixes values of different types");
+            }
+        }
+        // A column is only created for a non null value
+        return type;
+    }
+
+    private static byte getValueType(String key, Object value) {
+        if (value instanceof Boolean) {
+            return TYPE_BOOLEAN;
+        } else if (value instanceof Integer) {
+            return TYPE_INT;
+        } else if (value instanceof Long) {
+            return TYPE_LONG;
+        } else if (value instanceof String) {
+            return ((String) value).startsWith("/") ? TYPE_PATH : TYPE_STRING;
+        } else if (value instanceof byte[]) {
+            return TYPE_BYTES;
+        }
+        throw new IllegalArgumentException("Field " + key + " can't be sent on the compact channel: " + value.getClass().getName());
+    }
+
+    private static boolean isNumber(byte type) {
+        return type == TYPE_INT || type == TYPE_LONG;
+    }
+
+    private static boolean isString(byte type) {
+        return type == TYPE_STRING || type == TYPE_PATH;
+    }
+
+    private static class Column {
+
+        private final int keyIndex;
+        private final byte type;
+        private final Object[] values;
+        private final int[] stringIndexes;
+        private final int[] prefixIndexes;
+
+        Column(int keyIndex, byte type, Object[] values, StringTable strings) {
+            this.keyIndex = keyIndex;
+            this.type = type;
+            this.values = values;
+
+            if (type != TYPE_STRING && type != TYPE_PATH) {
+                this.stringIndexes = null;
+                this.prefixIndexes = null;
+                return;
+            }
+
+            String[] prefixes = type == TYPE_PATH ? getSharedPrefixes(values) : null;
+            this.stringIndexes = new int[values.length];
+            this.prefixIndexes = prefixes != null ? new int[values.length] : null;
+            for (int row = 0; row < values.length; row++) {
+                if (values[row] == null) {
+                    continue;
+                }
+
+                String value = (String) values[row];
+                if (prefixes != null) {
+                    prefixIndexes[row] = strings.intern(prefixes[row]);
+                    value = value.substring(prefixes[row].length());
+                }
+                stringIndexes[row] = strings.intern(value);
+            }
+        }
+
+        /**
+         * Number of bytes written by {@link #write(Output)}
+         */
+        int getSize() {
+            int presenceSize = (values.length + 7) / 8;
+            int size = 4 + 1 + presenceSize;
+
+            if (type == TYPE_BOOLEAN) {
+                return size + presenceSize;
+            }
+
+            for (Object value : values) {
+                if (value == null) {
+                    continue;
+                }
+
+                switch (type) {
+                    case TYPE_INT:
+                    case TYPE_STRING:
+                        size += 4;
+                        break;
+                    case TYPE_LONG:
+                        size += 8;
+                        break;
+                    case TYPE_PATH:
+                        size += prefixIndexes != null ? 8 : 4;
+                        break;
+                    case TYPE_BYTES:
+                        size += 4 + ((byte[]) value).length;
+                        break;
+                }
+            }
+            return size;
+        }
+
+        void write(Output output) {
+            output.writeInt(keyIndex);
+            output.writeByte(type);
+
+            byte[] presence = new byte[(values.length + 7) / 8];
+            for (int row = 0; row < values.length; row++) {
+                if (values[row] != null) {
+                    presence[row >> 3] |= 1 << (row & 7);
+                }
+            }
+            output.writeRaw(presence);
+
+            switch (type) {
+                case TYPE_BOOLEAN:
+                    byte[] bits = new byte[presence.length];
+                    for (int row = 0; row < values.length; row++) {
+                        if (Boolean.TRUE.equals(values[row])) {
+                            bits[row >> 3] |= 1 << (row & 7);
+                        }
+                    }
+                    output.writeRaw(bits);
+                    break;
+                case TYPE_INT:
+                    for (Object value : values) {
+                        if (value != null) {
+                            output.writeInt((Integer) value);
+                        }
+                    }
+                    break;
+                case TYPE_LONG:
+                    for (Object value : values) {
+                        if (value != null) {
+                            output.writeLong(((Number) value).longValue());
+                        }
+                    }
+                    break;
+                case TYPE_STRING:
+                case TYPE_PATH:
+                    for (int row = 0; row < values.length; row++) {
+                        if (values[row] != null) {
+                            if (prefixIndexes != null) {
+                                output.writeInt(prefixIndexes[row]);
+                            }
+                            output.writeInt(stringIndexes[row]);
+                        }
+                    }
+                    break;
+                case TYPE_BYTES:
+                    for (Object value : values) {
+                        if (value != null) {
+                            output.writeInt(((byte[]) value).length);
+                        }
+                    }
+                    for (Object value : values) {
+                        if (value != null) {
+                            output.writeRaw((byte[]) value);
+                        }
+                    }
+                    break;
+            }
+        }
+
+    }
+
+    /**
+     * For each path, its longest directory shared with another path of the column (eg:
+     * "/data/app/", "/system/priv-app/")
+     */
+    private static String[] getSharedPrefixes(Object[] values) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Object value : values) {
+            if (value == null) {
+                continue;
+            }
+
+            String path = (String) value;
+            for (int i = path.indexOf('/'); i != -1 && i < path.length() - 1; i = path.indexOf('/', i + 1)) {
+                String prefix = path.substring(0, i + 1);
+                Integer count = counts.get(prefix);
+                counts.put(prefix, count != null ? count + 1 : 1);
+            }
+        }
+
+        String[] prefixes = new String[values.length];
+        for (int row = 0; row < values.length; row++) {
+            if (values[row] == null) {
+                continue;
+            }
+
+            String path = (String) values[row];
+            prefixes[row] = "";
+            for (int i = path.lastIndexOf('/', path.length() - 2); i != -1; i = path.lastIndexOf('/', i - 1)) {
+                String prefix = path.substring(0, i + 1);
+                Integer count = counts.get(prefix);
+                if (count != null && count > 1) {
+                    prefixes[row] = prefix;
+                    break;
+                }
+            }
+        }
+        return prefixes;
+    }
+
+    private static class StringTable {
+
+        // UTF-8 encoded
+        final List<byte[]> values = new ArrayList<>();
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int size = 4;
+
+        int intern(String value) {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                byte[] encodedValue = value.getBytes(UTF_8);
+                index = values.size();
+                values.add(encodedValue);
+                indexes.put(value, index);
+                size += 4 + encodedValue.length;
+            }
+            return index;
+        }
+
+        /**
+         * Number of bytes of the table (count, then lengths and values)
+         */
+        int getSize() {
+            return size;
+        }
+
+    }
+
+    /**
+     * Writes in a direct buffer, which grows if the initial capacity is exceeded.
+     * Replies have to be sent in direct buffers, up to their position (like the standard codec)
+     */
+    private static class Output {
+
+        private ByteBuffer buffer;
+
+        Output(int capacity) {
+            this.buffer = ByteBuffer.allocateDirect(capacity);
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer.put((byte) value);
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(4);
+            buffer.putInt(value);
+        }
+
+        void writeLong(long value) {
+            ensureCapacity(8);
+            buffer.putLong(value);
+        }
+
+        /**
+         * The length, then the bytes
+         */
+        void writeBytes(byte[] bytes) {
+            writeInt(bytes.length);
+            writeRaw(bytes);
+        }
+
+        void writeRaw(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            buffer.put(bytes);
+        }
+
+        ByteBuffer toByteBuffer() {
+            return buffer;
+        }
+
+        private void ensureCapacity(int size) {
+            if (buffer.remaining() >= size) {
+                return;
+            }
+
+            ByteBuffer grownBuffer = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + size));
+            buffer.flip();
+            grownBuffer.put(buffer);
+            buffer = grownBuffer;
+        }
+
+    }
+
+}
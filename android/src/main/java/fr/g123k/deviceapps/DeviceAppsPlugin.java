@@ -5,35 +5,47 @@ import android.content.Intent;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Process;
 import android.provider.Settings;
 import android.text.TextUtils;
 import android.util.Log;
 import android.content.pm.LauncherApps;
 import android.content.pm.LauncherActivityInfo;
 import android.os.UserHandle;
-import android.os.UserManager;
 import android.content.ComponentName;
 
 
 import androidx.annotation.NonNull;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 import fr.g123k.deviceapps.listener.DeviceAppsChangedListener;
 import fr.g123k.deviceapps.listener.DeviceAppsChangedListenerInterface;
 import fr.g123k.deviceapps.utils.AppDataConstants;
 import fr.g123k.deviceapps.utils.AppDataEventConstants;
+import fr.g123k.deviceapps.utils.EncodedIcon;
+import fr.g123k.deviceapps.utils.IconOptions;
 import fr.g123k.deviceapps.utils.IntentUtils;
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.plugin.common.BasicMessageChannel;
 import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
@@ -41,8 +53,8 @@ import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
 
-import static fr.g123k.deviceapps.utils.Base64Utils.encodeToBase64;
-import static fr.g123k.deviceapps.utils.DrawableUtils.getBitmapFromDrawable;
+import static fr.g123k.deviceapps.utils.BitmapUtils.encode;
+import static fr.g123k.deviceapps.utils.DrawableUtils.drawToReusableBitmap;
 
 /**
  * DeviceAppsPlugin
@@ -54,22 +66,102 @@ public class DeviceAppsPlugin implements
         DeviceAppsChangedListenerInterface {
 
     private static final String LOG_TAG = "DEVICE_APPS";
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_DIRECT_LOOKUPS = 16;
+    private static final long DEFAULT_EVENTS_WINDOW_MS = 500;
+    private static final int DEFAULT_TOP_APPS_COUNT = 10;
+    private static final long DEFAULT_TOP_APPS_WINDOW_MS = 24 * 60 * 60 * 1000L;
+    private static final long ICON_DISK_CACHE_SIZE = 20 * 1024 * 1024;
+    private static final int ICON_MEMORY_CACHE_SIZE = 4 * 1024 * 1024;
+    private static final String PAGE_APPS = "apps";
+    private static final String PAGE_NEXT_TOKEN = "next_page_token";
+    private static final String QUERY_APPS = "apps";
+    private static final String QUERY_TOTAL = "total";
+    private static final String CHANGES_TOKEN = "token";
+    private static final String CHANGES_RESET = "reset";
+    private static final String CHANGES_ADDED = "added";
+    private static final String CHANGES_UPDATED = "updated";
+    private static final String CHANGES_REMOVED = "removed";
+    private static final String SNAPSHOT_FILE_NAME = "device_apps_catalog.bin";
+    private static final String SNAPSHOT_APPS = "apps";
+    private static final String SNAPSHOT_REVALIDATING = "revalidating";
+    private static final String SNAPSHOT_REQUEST_ID = "request_id";
+    private static final String COMPACT_METHOD = "method";
+    private static final String COMPACT_ARGUMENTS = "arguments";
+    private static final Set<String> COMPACT_METHODS = new HashSet<>(Arrays.asList(
+            "getMainProfileInstalledApps",
+            "getWorkProfileInstalledApps",
+            "getInstalledApps"
+    ));
+    // Ids of requests sent by Dart are never negative
+    private static final int PREWARM_REQUEST_ID = -1;
+    private static final String PREWARM_META_DATA = "fr.g123k.deviceapps.PREWARM";
+    private static final String PREWARM_SYSTEM_APPS_META_DATA = "fr.g123k.deviceapps.PREWARM_SYSTEM_APPS";
+    private static final String PREWARM_ICON_SIZE_META_DATA = "fr.g123k.deviceapps.PREWARM_ICON_SIZE";
     private static final int SYSTEM_APP_MASK = ApplicationInfo.FLAG_SYSTEM | ApplicationInfo.FLAG_UPDATED_SYSTEM_APP;
 
     private final AsyncWork asyncWork;
+    private final Metrics metrics;
+    private final AppsCatalog appsCatalog;
+    private final InFlightRequests inFlightRequests;
+    private final IconDeduplicator iconDeduplicator;
+    private final IconMemoryCache iconMemoryCache;
+
+    // Shared by all the results sent from background threads
+    private final Handler mainHandler;
 
     private MethodChannel methodChannel;
     private EventChannel eventChannel;
+    private EventChannel batchedEventChannel;
+    private BasicMessageChannel<Object> compactChannel;
     private DeviceAppsChangedListener appsListener;
+    private volatile IconDiskCache iconDiskCache;
+    private volatile AppsChangesTracker changesTracker;
+    private volatile ProfileRegistry profileRegistry;
+    private volatile PackageInfoCache packageInfoCache;
+    private volatile File snapshotFile;
+    private volatile UsageStatsCache usageStatsCache;
 
 
     public DeviceAppsPlugin() {
         this.asyncWork = new AsyncWork();
+        this.metrics = new Metrics();
+        this.appsCatalog = new AppsCatalog(metrics);
+        this.inFlightRequests = new InFlightRequests();
+        this.iconDeduplicator = new IconDeduplicator();
+        this.iconMemoryCache = new IconMemoryCache(ICON_MEMORY_CACHE_SIZE);
+        this.mainHandler = new Handler(Looper.getMainLooper());
     }
 
     @Override
     public void onAttachedToEngine(@NonNull FlutterPluginBinding binding) {
         context = binding.getApplicationContext();
+        iconDiskCache = new IconDiskCache(context.getCacheDir(), ICON_DISK_CACHE_SIZE);
+        changesTracker = new AppsChangesTracker(context, metrics);
+        packageInfoCache = new PackageInfoCache(context, metrics);
+        snapshotFile = new File(context.getCacheDir(), SNAPSHOT_FILE_NAME);
+        usageStatsCache = new UsageStatsCache(context, metrics);
+        profileRegistry = new ProfileRegistry(context, metrics, new ProfileRegistry.Callback() {
+            @Override
+            public void onProfilesChanged() {
+                asyncWork.run(AsyncWork.Lane.INTERACTIVE, new Runnable() {
+                    @Override
+                    public void run() {
+                        ProfileRegistry registry = profileRegistry;
+                        if (registry != null) {
+                            appsCatalog.retainProfiles(registry.reload());
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onProfileAvailabilityChanged(UserHandle profile) {
+                appsCatalog.invalidateProfile(profile);
+            }
+        });
+        profileRegistry.register();
+        appsCatalog.register((LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE), mainHandler);
 
         BinaryMessenger messenger = binding.getBinaryMessenger();
         methodChannel = new MethodChannel(messenger, "g123k/device_apps");
@@ -77,46 +169,277 @@ public class DeviceAppsPlugin implements
 
         eventChannel = new EventChannel(messenger, "g123k/device_apps_events");
         eventChannel.setStreamHandler(this);
+
+        batchedEventChannel = new EventChannel(messenger, "g123k/device_apps_batched_events");
+        batchedEventChannel.setStreamHandler(new EventChannel.StreamHandler() {
+            @Override
+            public void onListen(Object arguments, EventChannel.EventSink events) {
+                if (appsListener != null) {
+                    long windowMs = DEFAULT_EVENTS_WINDOW_MS;
+                    if (arguments instanceof Map && ((Map<?, ?>) arguments).get("window_ms") instanceof Number) {
+                        windowMs = ((Number) ((Map<?, ?>) arguments).get("window_ms")).longValue();
+                    }
+                    appsListener.setBatchedSink(events, windowMs);
+                }
+            }
+
+            @Override
+            public void onCancel(Object arguments) {
+                if (appsListener != null) {
+                    appsListener.removeBatchedSink();
+                }
+            }
+        });
+
+        compactChannel = new BasicMessageChannel<>(messenger, "g123k/device_apps_compact", CompactAppsCodec.INSTANCE);
+        compactChannel.setMessageHandler(new BasicMessageChannel.MessageHandler<Object>() {
+            @Override
+            public void onMessage(Object message, BasicMessageChannel.Reply<Object> reply) {
+                onCompactMessage(message, reply);
+            }
+        });
+
+        // The receiver is always registered to keep the apps catalog up to date
+        appsListener = new DeviceAppsChangedListener(this, mainHandler);
+        appsListener.register(context);
+
+        prewarm();
+    }
+
+    /**
+     * Opt-in, with meta-data in the AndroidManifest: the catalog of the main profile (and icons
+     * with {@link #PREWARM_ICON_SIZE_META_DATA}) is loaded right after the attachment, on the lane
+     * of lists (at a low priority). The first list waits for it, then reuses the loaded apps.
+     * The prewarm is cancelled on detach, or with the "cancelPrewarm" method
+     */
+    private void prewarm() {
+        final Context context = this.context;
+        asyncWork.run(AsyncWork.Lane.BULK, PREWARM_REQUEST_ID, new Runnable() {
+
+            @Override
+            public void run() {
+                Bundle metaData = getMetaData(context);
+                if (metaData == null || !metaData.getBoolean(PREWARM_META_DATA, false)) {
+                    return;
+                }
+
+                // Icons are only reused with the same options (with the default format)
+                int iconSize = metaData.getInt(PREWARM_ICON_SIZE_META_DATA, -1);
+                IconOptions iconOptions = iconSize >= 0 ? new IconOptions(iconSize, IconOptions.DEFAULT.format, IconOptions.DEFAULT.quality) : null;
+                boolean includeSystemApps = metaData.getBoolean(PREWARM_SYSTEM_APPS_META_DATA, false);
+
+                // A cancellation exception is caught by AsyncWork
+                Metrics.Span span = metrics.startStage(Metrics.STAGE_PREWARM);
+                try {
+                    getMainInstalledApps(includeSystemApps, iconOptions, false, false, null);
+                } finally {
+                    span.end();
+                }
+            }
+
+        });
+    }
+
+    private static Bundle getMetaData(Context context) {
+        try {
+            return context.getPackageManager().getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA).metaData;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
     }
 
     private Context context;
 
     @Override
+    public void onMethodCall(MethodCall call, @NonNull Result methodResult) {
+        long start = System.nanoTime();
+        try {
+            handleMethodCall(call, metrics.measure(call.method, methodResult));
+        } finally {
+            metrics.recordMainThread(call.method, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Same calls as the method channel, for lists only, but the apps are sent with
+     * {@link CompactAppsCodec} (encoded in the background)
+     */
+    private void onCompactMessage(Object message, final BasicMessageChannel.Reply<Object> reply) {
+        Map<?, ?> request = message instanceof Map ? (Map<?, ?>) message : Collections.emptyMap();
+        Object method = request.get(COMPACT_METHOD);
+        if (!COMPACT_METHODS.contains(method)) {
+            reply.reply(CompactAppsCodec.encodeError("ERROR", "Unsupported method on the compact channel: " + method));
+            return;
+        }
+
+        MethodCall call = new MethodCall((String) method, request.get(COMPACT_ARGUMENTS));
+        String measuredMethod = "compact:" + call.method;
+        final Result measuredResult = metrics.measure(measuredMethod, new Result() {
+            @Override
+            public void success(Object value) {
+                reply.reply(value);
+            }
+
+            @Override
+            public void error(String errorCode, String errorMessage, Object errorDetails) {
+                reply.reply(CompactAppsCodec.encodeError(errorCode, errorMessage));
+            }
+
+            @Override
+            public void notImplemented() {
+                reply.reply(CompactAppsCodec.encodeError("ERROR", "Not implemented"));
+            }
+        });
+
+        long start = System.nanoTime();
+        try {
+            handleMethodCall(call, new Result() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public void success(final Object value) {
+                    // Encoding a whole list (with icons) is bulk work
+                    asyncWork.run(AsyncWork.Lane.BULK, new Runnable() {
+                        @Override
+                        public void run() {
+                            Metrics.Span span = metrics.startStage(Metrics.STAGE_COMPACT_ENCODE);
+                            ByteBuffer encodedApps;
+                            try {
+                                // A field which can't be encoded is replied as an error
+                                encodedApps = CompactAppsCodec.encodeApps((List<Map<String, Object>>) value);
+                            } finally {
+                                span.end();
+                            }
+                            postSuccess(measuredResult, encodedApps);
+                        }
+                    }, replyError(measuredResult));
+                }
+
+                @Override
+                public void error(String errorCode, String errorMessage, Object errorDetails) {
+                    measuredResult.error(errorCode, errorMessage, errorDetails);
+                }
+
+                @Override
+                public void notImplemented() {
+                    measuredResult.notImplemented();
+                }
+            });
+        } finally {
+            metrics.recordMainThread(measuredMethod, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Only arguments are read on the main thread: all the work (binder calls, icons...) is made
+     * in the background, except for calls only reading the memory (metrics, cancellation)
+     */
     @SuppressWarnings("ConstantConditions")
-    public void onMethodCall(MethodCall call, @NonNull final Result result) {
+    private void handleMethodCall(MethodCall call, final Result result) {
         switch (call.method) {
             case "getMainProfileInstalledApps":
                 boolean systemApps = call.hasArgument("system_apps") && (Boolean) (call.argument("system_apps"));
                 boolean includeAppIcons = call.hasArgument("include_app_icons") && (Boolean) (call.argument("include_app_icons"));
                 boolean onlyAppsWithLaunchIntent = call.hasArgument("only_apps_with_launch_intent") && (Boolean) (call.argument("only_apps_with_launch_intent"));
-                fetchMainInstalledApps(systemApps, includeAppIcons, onlyAppsWithLaunchIntent, new InstalledAppsCallback() {
-                    @Override
-                    public void onInstalledAppsListAvailable(final List<Map<String, Object>> apps) {
-                        new Handler(Looper.getMainLooper()).post(new Runnable() {
-                            @Override
-                            public void run() {
-                                result.success(apps);
-                            }
-                        });
-                    }
-                });
+                boolean parallel = call.hasArgument("parallel") && (Boolean) (call.argument("parallel"));
+                IconOptions iconOptions = includeAppIcons ? getIconOptions(call) : null;
+                Set<String> fields = getFields(call);
+                fetchInstalledApps(false, systemApps, iconOptions, onlyAppsWithLaunchIntent, parallel, fields, getRequestId(call), result);
+                break;
+            case "getInstalledAppsSnapshot":
+                boolean snapshotSystemApps = call.hasArgument("system_apps") && (Boolean) (call.argument("system_apps"));
+                Integer snapshotRequestId = getRequestId(call);
+                fetchInstalledAppsSnapshot(snapshotSystemApps, getFields(call), snapshotRequestId != null ? snapshotRequestId : 0, result);
                 break;
             case "getWorkProfileInstalledApps":
                 boolean workSystemApps = call.hasArgument("system_apps") && (Boolean) (call.argument("system_apps"));
                 boolean workIncludeAppIcons = call.hasArgument("include_app_icons") && (Boolean) (call.argument("include_app_icons"));
                 boolean workOnlyAppsWithLaunchIntent = call.hasArgument("only_apps_with_launch_intent") && (Boolean) (call.argument("only_apps_with_launch_intent"));
-                fetchWorkInstalledApps(workSystemApps, workIncludeAppIcons, workOnlyAppsWithLaunchIntent, new InstalledAppsCallback() {
-                    @Override
-                    public void onInstalledAppsListAvailable(final List<Map<String, Object>> apps) {
-                        new Handler(Looper.getMainLooper()).post(new Runnable() {
-                            @Override
-                            public void run() {
-
-                                result.success(apps);
-                            }
-                        });
-                    }
-                });
+                boolean workParallel = call.hasArgument("parallel") && (Boolean) (call.argument("parallel"));
+                IconOptions workIconOptions = workIncludeAppIcons ? getIconOptions(call) : null;
+                Set<String> workFields = getFields(call);
+                fetchInstalledApps(true, workSystemApps, workIconOptions, workOnlyAppsWithLaunchIntent, workParallel, workFields, getRequestId(call), result);
+                break;
+            case "getInstalledApps":
+                boolean profilesSystemApps = call.hasArgument("system_apps") && (Boolean) (call.argument("system_apps"));
+                boolean profilesIncludeAppIcons = call.hasArgument("include_app_icons") && (Boolean) (call.argument("include_app_icons"));
+                boolean profilesParallel = call.hasArgument("parallel") && (Boolean) (call.argument("parallel"));
+                IconOptions profilesIconOptions = profilesIncludeAppIcons ? getIconOptions(call) : null;
+                fetchProfilesInstalledApps(getProfileIds(call), profilesSystemApps, profilesIconOptions, profilesParallel, getFields(call), getRequestId(call), result);
+                break;
+            case "getProfiles":
+                fetchProfiles(result);
+                break;
+            case "queryApps":
+                boolean queryForWorkProfile = call.hasArgument("for_work_profile") && (Boolean) (call.argument("for_work_profile"));
+                boolean queryIncludeAppIcons = call.hasArgument("include_app_icons") && (Boolean) (call.argument("include_app_icons"));
+                boolean queryParallel = call.hasArgument("parallel") && (Boolean) (call.argument("parallel"));
+                IconOptions queryIconOptions = queryIncludeAppIcons ? getIconOptions(call) : null;
+                fetchQueryApps(getAppsQuery(call), queryForWorkProfile, queryIconOptions, queryParallel, getFields(call), getRequestId(call), result);
+                break;
+            case "getTopApps":
+                Integer topCountArgument = call.argument("count");
+                Number topWindowMsArgument = call.argument("window_ms");
+                int topCount = topCountArgument != null ? topCountArgument : DEFAULT_TOP_APPS_COUNT;
+                long topWindowMs = topWindowMsArgument != null ? topWindowMsArgument.longValue() : DEFAULT_TOP_APPS_WINDOW_MS;
+                if (topCount <= 0) {
+                    result.error("ERROR", "The count of top apps must be positive: " + topCount, null);
+                    break;
+                }
+                if (topWindowMs <= 0) {
+                    // The usage would be queried (and cached) for an empty window
+                    result.error("ERROR", "The window of top apps must be positive: " + topWindowMs + " ms", null);
+                    break;
+                }
+                boolean topSystemApps = call.hasArgument("system_apps") && (Boolean) (call.argument("system_apps"));
+                boolean topIncludeAppIcons = call.hasArgument("include_app_icons") && (Boolean) (call.argument("include_app_icons"));
+                IconOptions topIconOptions = topIncludeAppIcons ? getIconOptions(call) : null;
+                fetchTopApps(topCount, topWindowMs, topSystemApps, topIconOptions, getFields(call), getRequestId(call), result);
+                break;
+            case "cancelPrewarm":
+                result.success(asyncWork.cancel(PREWARM_REQUEST_ID));
+                break;
+            case "cancelRequest":
+                Integer cancelledRequestId = getRequestId(call);
+                result.success(cancelledRequestId != null && asyncWork.cancel(cancelledRequestId));
+                break;
+            case "getMetrics":
+                result.success(metrics.toMap());
+                break;
+            case "resetMetrics":
+                metrics.reset();
+                result.success(null);
+                break;
+            case "setMetricsTracing":
+                metrics.setTracingEnabled(Boolean.TRUE.equals(call.argument("enabled")));
+                result.success(null);
+                break;
+            case "getInstalledAppsPage":
+                boolean pageForWorkProfile = call.hasArgument("for_work_profile") && (Boolean) (call.argument("for_work_profile"));
+                boolean pageSystemApps = call.hasArgument("system_apps") && (Boolean) (call.argument("system_apps"));
+                boolean pageIncludeAppIcons = call.hasArgument("include_app_icons") && (Boolean) (call.argument("include_app_icons"));
+                boolean pageParallel = call.hasArgument("parallel") && (Boolean) (call.argument("parallel"));
+                String pageToken = call.argument("page_token");
+                int pageSize = call.hasArgument("page_size") ? (Integer) call.argument("page_size") : DEFAULT_PAGE_SIZE;
+                IconOptions pageIconOptions = pageIncludeAppIcons ? getIconOptions(call) : null;
+                fetchInstalledAppsPage(pageForWorkProfile, pageSystemApps, pageIconOptions, pageParallel, getFields(call), pageToken, pageSize, getRequestId(call), result);
+                break;
+            case "getChangesSince":
+                boolean changesSystemApps = call.hasArgument("system_apps") && (Boolean) (call.argument("system_apps"));
+                boolean changesIncludeAppIcons = call.hasArgument("include_app_icons") && (Boolean) (call.argument("include_app_icons"));
+                boolean changesParallel = call.hasArgument("parallel") && (Boolean) (call.argument("parallel"));
+                String changesToken = call.argument("token");
+                IconOptions changesIconOptions = changesIncludeAppIcons ? getIconOptions(call) : null;
+                fetchChangesSince(changesToken, changesSystemApps, changesIconOptions, changesParallel, getFields(call), result);
+                break;
+            case "getAppIcons":
+                List<String> iconsPackageNames = call.argument("package_names");
+                if (iconsPackageNames == null) {
+                    result.error("ERROR", "Null package names", null);
+                } else {
+                    boolean iconsForWorkProfile = call.hasArgument("for_work_profile") && (Boolean) (call.argument("for_work_profile"));
+                    boolean iconsParallel = call.hasArgument("parallel") && (Boolean) (call.argument("parallel"));
+                    fetchAppIcons(iconsPackageNames, iconsForWorkProfile, getIconOptions(call), iconsParallel, result);
+                }
                 break;
             case "getApp":
                 if (!call.hasArgument("package_name") || TextUtils.isEmpty(call.argument("package_name").toString())) {
@@ -124,7 +447,16 @@ public class DeviceAppsPlugin implements
                 } else {
                     String packageName = call.argument("package_name").toString();
                     boolean includeAppIcon = call.hasArgument("include_app_icon") && (Boolean) (call.argument("include_app_icon"));
-                    result.success(getApp(packageName, includeAppIcon));
+                    fetchApp(packageName, includeAppIcon ? getIconOptions(call) : null, getFields(call), result);
+                }
+                break;
+            case "getApps":
+                List<String> appsPackageNames = call.argument("package_names");
+                if (appsPackageNames == null) {
+                    result.error("ERROR", "Null package names", null);
+                } else {
+                    boolean appsIncludeAppIcons = call.hasArgument("include_app_icons") && (Boolean) (call.argument("include_app_icons"));
+                    fetchApps(appsPackageNames, appsIncludeAppIcons ? getIconOptions(call) : null, getFields(call), result);
                 }
                 break;
             case "isAppInstalled":
@@ -132,7 +464,15 @@ public class DeviceAppsPlugin implements
                     result.error("ERROR", "Empty or null package name", null);
                 } else {
                     String packageName = call.argument("package_name").toString();
-                    result.success(isAppInstalled(packageName));
+                    fetchAppsInstalled(Collections.singletonList(packageName), true, result);
+                }
+                break;
+            case "areAppsInstalled":
+                List<String> installedPackageNames = call.argument("package_names");
+                if (installedPackageNames == null) {
+                    result.error("ERROR", "Null package names", null);
+                } else {
+                    fetchAppsInstalled(installedPackageNames, false, result);
                 }
                 break;
             case "openApp":
@@ -142,7 +482,7 @@ public class DeviceAppsPlugin implements
                     String packageName = call.argument("package_name").toString();
                     boolean forWorkProfile = call.hasArgument("for_work_profile") && (Boolean) (call.argument("for_work_profile"));
                     // Assuming the profile is passed as a String or some identifiable format
-                    result.success(openApp(packageName, forWorkProfile));
+                    fetchOpenApp(packageName, forWorkProfile, result);
                 }
                 break;
             case "openAppSettings":
@@ -150,7 +490,7 @@ public class DeviceAppsPlugin implements
                     result.error("ERROR", "Empty or null package name", null);
                 } else {
                     String packageName = call.argument("package_name").toString();
-                    result.success(openAppSettings(packageName));
+                    fetchOpenAppSettings(packageName, result);
                 }
                 break;
             case "uninstallApp":
@@ -158,7 +498,7 @@ public class DeviceAppsPlugin implements
                     result.error("ERROR", "Empty or null package name", null);
                 } else {
                     String packageName = call.argument("package_name").toString();
-                    result.success(uninstallApp(packageName));
+                    fetchUninstallApp(packageName, result);
                 }
                 break;
             default:
@@ -166,168 +506,1194 @@ public class DeviceAppsPlugin implements
         }
     }
 
-    private void fetchMainInstalledApps(final boolean includeSystemApps, final boolean includeAppIcons, final boolean onlyAppsWithLaunchIntent, final InstalledAppsCallback callback) {
-        asyncWork.run(new Runnable() {
+    /**
+     * Requests which can be cancelled (with a {@code requestId}) are not coalesced, otherwise
+     * cancelling one of them would cancel the others
+     */
+    private void fetchInstalledApps(final boolean forWorkProfile,
+                                    final boolean includeSystemApps,
+                                    final IconOptions iconOptions,
+                                    final boolean onlyAppsWithLaunchIntent,
+                                    final boolean parallel,
+                                    final Set<String> fields,
+                                    final Integer requestId,
+                                    final Result result) {
+        final InFlightRequests.Callback callback = new InFlightRequests.Callback() {
+            @Override
+            public void onInstalledAppsListAvailable(final List<Map<String, Object>> apps) {
+                postSuccess(result, IconDeduplicator.shareDuplicates(apps, metrics));
+            }
+
+            @Override
+            public void onInstalledAppsListFailed(RuntimeException error) {
+                postError(result, "ERROR", error.getMessage());
+            }
+        };
+
+        final InFlightRequests.Request request = new InFlightRequests.Request(forWorkProfile ? "getWorkProfileInstalledApps" : "getMainProfileInstalledApps", includeSystemApps, iconOptions, onlyAppsWithLaunchIntent, fields);
+        if (requestId == null && !inFlightRequests.join(request, callback)) {
+            metrics.count(Metrics.COUNTER_COALESCED_REQUESTS, 1);
+            return;
+        }
+
+        asyncWork.run(AsyncWork.Lane.BULK, requestId, new Runnable() {
+
+            @Override
+            public void run() {
+                if (requestId != null) {
+                    try {
+                        callback.onInstalledAppsListAvailable(getProfileInstalledApps(forWorkProfile, includeSystemApps, iconOptions, onlyAppsWithLaunchIntent, parallel, fields));
+                    } catch (CancellationException e) {
+                        sendCancelled(result);
+                    }
+                    return;
+                }
+
+                final List<Map<String, Object>> installedApps;
+                try {
+                    installedApps = getProfileInstalledApps(forWorkProfile, includeSystemApps, iconOptions, onlyAppsWithLaunchIntent, parallel, fields);
+                } catch (RuntimeException e) {
+                    // Also sent to the requests waiting for this one
+                    Log.e(LOG_TAG, "Request failed", e);
+                    inFlightRequests.fail(request, e);
+                    return;
+                }
+                inFlightRequests.complete(request, installedApps);
+            }
+
+        }, replyError(result));
+    }
+
+    private List<Map<String, Object>> getProfileInstalledApps(boolean forWorkProfile, boolean includeSystemApps, IconOptions iconOptions, boolean onlyAppsWithLaunchIntent, boolean parallel, Set<String> fields) {
+        if (forWorkProfile) {
+            return getWorkInstalledApps(includeSystemApps, iconOptions, onlyAppsWithLaunchIntent, parallel, fields);
+        }
+        return getMainInstalledApps(includeSystemApps, iconOptions, onlyAppsWithLaunchIntent, parallel, fields);
+    }
+
+    private void sendCancelled(Result result) {
+        postError(result, "CANCELLED", "Request cancelled");
+    }
+
+    /**
+     * Results are always sent from the main thread
+     */
+    private void postSuccess(final Result result, final Object value) {
+        if (result instanceof Metrics.MeasuredResult) {
+            // The size is estimated in the background, the main thread only sends the value
+            ((Metrics.MeasuredResult) result).recordPayload(value);
+        }
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                result.success(value);
+            }
+        });
+    }
+
+    private void postError(final Result result, final String errorCode, final String errorMessage) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                result.error(errorCode, errorMessage, null);
+            }
+        });
+    }
+
+    /**
+     * Exceptions thrown in the background are sent as errors, like the method channel does for
+     * exceptions thrown by calls on the main thread
+     */
+    private AsyncWork.ErrorHandler replyError(final Result result) {
+        return new AsyncWork.ErrorHandler() {
+            @Override
+            public void onError(RuntimeException e) {
+                Log.e(LOG_TAG, "Request failed", e);
+                postError(result, "ERROR", e.getMessage());
+            }
+        };
+    }
+
+    /**
+     * Id given by Dart to cancel a long request (null if the request can't be cancelled)
+     */
+    private static Integer getRequestId(MethodCall call) {
+        Number requestId = call.argument("request_id");
+        return requestId != null ? requestId.intValue() : null;
+    }
+
+    /**
+     * Stale-while-revalidate: apps of the persisted snapshot are sent immediately (if the catalog
+     * is not loaded yet), then the snapshot is checked in the background and the result of this
+     * check is sent with the {@code onInstalledAppsRevalidated} method (the apps are null if the
+     * snapshot was up to date)
+     */
+    private void fetchInstalledAppsSnapshot(final boolean includeSystemApps,
+                                            final Set<String> fields,
+                                            final int requestId,
+                                            final Result result) {
+        asyncWork.run(AsyncWork.Lane.INTERACTIVE, new Runnable() {
+
+            @Override
+            public void run() {
+                final File file = snapshotFile;
+                final UserHandle profile = getProfile(false);
+
+                // Once loaded, the catalog is as fast and always up to date
+                final boolean catalogLoaded = profile != null && appsCatalog.isLoaded(profile);
+                final CatalogSnapshot snapshot = file != null && profile != null && !catalogLoaded ? CatalogSnapshot.read(file) : null;
+
+                if (snapshot == null) {
+                    // The apps have to be enumerated
+                    asyncWork.run(AsyncWork.Lane.BULK, new Runnable() {
+                        @Override
+                        public void run() {
+                            sendSnapshotResponse(getMainInstalledApps(includeSystemApps, null, false, false, fields), false, result);
+
+                            if (file != null && profile != null && (!catalogLoaded || !file.exists())) {
+                                // The snapshot is missing or unreadable
+                                saveSnapshot(file);
+                            }
+                        }
+                    }, replyError(result));
+                    return;
+                }
+
+                final List<Map<String, Object>> apps = filterSnapshotApps(snapshot.apps, includeSystemApps, fields);
+                sendSnapshotResponse(apps, true, result);
+
+                asyncWork.run(AsyncWork.Lane.BULK, new Runnable() {
+                    @Override
+                    public void run() {
+                        revalidateSnapshot(file, snapshot, apps, includeSystemApps, fields, requestId);
+                    }
+                });
+            }
+
+        }, replyError(result));
+    }
+
+    private void sendSnapshotResponse(List<Map<String, Object>> apps, boolean revalidating, final Result result) {
+        final Map<String, Object> response = new HashMap<>(2);
+        response.put(SNAPSHOT_APPS, apps);
+        response.put(SNAPSHOT_REVALIDATING, revalidating);
+
+        postSuccess(result, response);
+    }
+
+    private void revalidateSnapshot(File file,
+                                    CatalogSnapshot snapshot,
+                                    List<Map<String, Object>> staleApps,
+                                    boolean includeSystemApps,
+                                    Set<String> fields,
+                                    final int requestId) {
+        List<Map<String, Object>> correctedApps = null;
+        try {
+            if (!isSnapshotUpToDate(snapshot)) {
+                List<Map<String, Object>> apps = filterSnapshotApps(saveSnapshot(file), includeSystemApps, fields);
+                if (!apps.equals(staleApps)) {
+                    correctedApps = apps;
+                }
+            }
+        } catch (RuntimeException e) {
+            // The stale apps are kept
+            Log.w(LOG_TAG, "Unable to revalidate the apps snapshot", e);
+        } finally {
+            // The Dart side always waits for the revalidation
+            final Map<String, Object> arguments = new HashMap<>(2);
+            arguments.put(SNAPSHOT_REQUEST_ID, requestId);
+            arguments.put(SNAPSHOT_APPS, correctedApps);
+
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    MethodChannel channel = methodChannel;
+                    if (channel != null) {
+                        channel.invokeMethod("onInstalledAppsRevalidated", arguments);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Only the package change sequence number can be checked without enumerating the apps
+     * (Android 8.0+)
+     */
+    private boolean isSnapshotUpToDate(CatalogSnapshot snapshot) {
+        AppsChangesTracker tracker = changesTracker;
+        if (snapshot.token == null || tracker == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O
+                || !Locale.getDefault().toString().equals(snapshot.locale)) {
+            return false;
+        }
+
+        AppsChangesTracker.Changes changes = tracker.getChangesSince(snapshot.token, null);
+        return !changes.reset && changes.added.isEmpty() && changes.updated.isEmpty() && changes.removed.isEmpty();
+    }
+
+    /**
+     * Persists all the apps of the main profile, with all their fields (but without icons).
+     * Returns the saved apps
+     */
+    private List<Map<String, Object>> saveSnapshot(File file) {
+        // The token is taken first, so that changes during the enumeration are not missed
+        String token = null;
+        AppsChangesTracker tracker = changesTracker;
+        if (tracker != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            token = tracker.getChangesSince(null, null).token;
+        }
+
+        List<Map<String, Object>> apps = getMainInstalledApps(true, null, false, false, null);
+        new CatalogSnapshot(token, Locale.getDefault().toString(), apps).write(file);
+        return apps;
+    }
+
+    private static List<Map<String, Object>> filterSnapshotApps(List<Map<String, Object>> apps,
+                                                                boolean includeSystemApps,
+                                                                Set<String> fields) {
+        List<Map<String, Object>> filteredApps = new ArrayList<>(apps.size());
+        for (Map<String, Object> app : apps) {
+            if (!includeSystemApps && Boolean.TRUE.equals(app.get(AppDataConstants.SYSTEM_APP))) {
+                continue;
+            }
+
+            if (fields == null) {
+                filteredApps.add(app);
+            } else {
+                Map<String, Object> filteredApp = new HashMap<>(fields.size() + 1);
+                filteredApp.put(AppDataConstants.PACKAGE_NAME, app.get(AppDataConstants.PACKAGE_NAME));
+                for (String field : fields) {
+                    if (app.containsKey(field)) {
+                        filteredApp.put(field, app.get(field));
+                    }
+                }
+                filteredApps.add(filteredApp);
+            }
+        }
+        return filteredApps;
+    }
+
+    private void fetchProfilesInstalledApps(final List<Long> profileIds,
+                                            final boolean includeSystemApps,
+                                            final IconOptions iconOptions,
+                                            final boolean parallel,
+                                            final Set<String> fields,
+                                            final Integer requestId,
+                                            final Result result) {
+        asyncWork.run(AsyncWork.Lane.BULK, requestId, new Runnable() {
+
+            @Override
+            public void run() {
+                final List<Map<String, Object>> installedApps;
+                try {
+                    installedApps = getProfilesInstalledApps(profileIds, includeSystemApps, iconOptions, parallel, fields);
+                } catch (CancellationException e) {
+                    sendCancelled(result);
+                    return;
+                }
+
+                postSuccess(result, IconDeduplicator.shareDuplicates(installedApps, metrics));
+            }
+
+        }, replyError(result));
+    }
+
+    private void fetchQueryApps(final AppsQuery query,
+                                final boolean forWorkProfile,
+                                final IconOptions iconOptions,
+                                final boolean parallel,
+                                final Set<String> fields,
+                                final Integer requestId,
+                                final Result result) {
+        // Queries are served from the index when it is ready, the index is only built in bulk
+        asyncWork.run(AsyncWork.Lane.INTERACTIVE, requestId, new Runnable() {
+
+            @Override
+            public void run() {
+                final Map<String, Object> apps;
+                try {
+                    apps = queryApps(query, forWorkProfile, iconOptions, parallel, fields, true);
+                } catch (CancellationException e) {
+                    sendCancelled(result);
+                    return;
+                }
+
+                if (apps != null) {
+                    postSuccess(result, apps);
+                    return;
+                }
+
+                asyncWork.run(AsyncWork.Lane.BULK, requestId, new Runnable() {
+
+                    @Override
+                    public void run() {
+                        final Map<String, Object> apps;
+                        try {
+                            apps = queryApps(query, forWorkProfile, iconOptions, parallel, fields, false);
+                        } catch (CancellationException e) {
+                            sendCancelled(result);
+                            return;
+                        }
+
+                        postSuccess(result, apps);
+                    }
+
+                }, replyError(result));
+            }
+
+        }, replyError(result));
+    }
+
+    private void fetchTopApps(final int count,
+                              final long windowMs,
+                              final boolean includeSystemApps,
+                              final IconOptions iconOptions,
+                              final Set<String> fields,
+                              final Integer requestId,
+                              final Result result) {
+        asyncWork.run(AsyncWork.Lane.BULK, requestId, new Runnable() {
+
+            @Override
+            public void run() {
+                final List<Map<String, Object>> apps;
+                try {
+                    apps = getTopApps(count, windowMs, includeSystemApps, iconOptions, fields);
+                } catch (CancellationException e) {
+                    sendCancelled(result);
+                    return;
+                }
+
+                postSuccess(result, IconDeduplicator.shareDuplicates(apps, metrics));
+            }
+
+        }, replyError(result));
+    }
+
+    private void fetchProfiles(final Result result) {
+        asyncWork.run(AsyncWork.Lane.INTERACTIVE, new Runnable() {
+
+            @Override
+            public void run() {
+                ProfileRegistry registry = profileRegistry;
+                List<Long> profileIds = new ArrayList<>();
+                if (registry != null) {
+                    for (UserHandle profile : registry.getProfiles()) {
+                        profileIds.add(registry.getId(profile));
+                    }
+                }
+                postSuccess(result, profileIds);
+            }
+
+        }, replyError(result));
+    }
+
+    /**
+     * Activities are started from the main thread, with the context captured on the call: only
+     * the lookup of the app is done in the background
+     */
+    private void fetchOpenApp(final String packageName, final boolean forWorkProfile, final Result result) {
+        final Context context = this.context;
+        if (context == null) {
+            Log.e(LOG_TAG, "Context is null");
+            result.success(false);
+            return;
+        }
+
+        asyncWork.run(AsyncWork.Lane.INTERACTIVE, new Runnable() {
+
+            @Override
+            public void run() {
+                final LauncherApps launcherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
+                final UserHandle profile = getProfile(forWorkProfile);
+                final ComponentName componentName = getMainActivity(launcherApps, profile, forWorkProfile, packageName);
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            result.success(componentName != null && openApp(launcherApps, profile, componentName));
+                        } catch (RuntimeException e) {
+                            Log.e(LOG_TAG, "Failed to open the app", e);
+                            result.error("ERROR", e.getMessage(), null);
+                        }
+                    }
+                });
+            }
+
+        }, replyError(result));
+    }
+
+    private void fetchOpenAppSettings(final String packageName, final Result result) {
+        Intent appSettingsIntent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
+        appSettingsIntent.setData(Uri.parse("package:" + packageName));
+        appSettingsIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+
+        fetchStartActivity(packageName, appSettingsIntent, result);
+    }
+
+    private void fetchUninstallApp(final String packageName, final Result result) {
+        Intent uninstallIntent = new Intent(Intent.ACTION_DELETE);
+        uninstallIntent.setData(Uri.parse("package:" + packageName));
+        uninstallIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+
+        fetchStartActivity(packageName, uninstallIntent, result);
+    }
+
+    /**
+     * Like {@link #fetchOpenApp}, the activity is started from the main thread once the
+     * {@code PackageManager} has been queried in the background
+     */
+    private void fetchStartActivity(final String packageName, final Intent intent, final Result result) {
+        final Context context = this.context;
+        if (context == null) {
+            Log.e(LOG_TAG, "Context is null");
+            result.success(false);
+            return;
+        }
+
+        asyncWork.run(AsyncWork.Lane.INTERACTIVE, new Runnable() {
+
+            @Override
+            public void run() {
+                final boolean openable = canStartActivity(context, packageName, intent);
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!openable) {
+                            result.success(false);
+                            return;
+                        }
+
+                        try {
+                            context.startActivity(intent);
+                            result.success(true);
+                        } catch (RuntimeException e) {
+                            Log.e(LOG_TAG, "Failed to start the activity", e);
+                            result.error("ERROR", e.getMessage(), null);
+                        }
+                    }
+                });
+            }
+
+        }, replyError(result));
+    }
+
+    private void fetchInstalledAppsPage(final boolean forWorkProfile,
+                                        final boolean includeSystemApps,
+                                        final IconOptions iconOptions,
+                                        final boolean parallel,
+                                        final Set<String> fields,
+                                        final String pageToken,
+                                        final int pageSize,
+                                        final Integer requestId,
+                                        final Result result) {
+        asyncWork.run(AsyncWork.Lane.BULK, requestId, new Runnable() {
+
+            @Override
+            public void run() {
+                final Map<String, Object> page;
+                try {
+                    page = getInstalledAppsPage(forWorkProfile, includeSystemApps, iconOptions, parallel, fields, pageToken, pageSize);
+                } catch (CancellationException e) {
+                    sendCancelled(result);
+                    return;
+                }
+
+                postSuccess(result, page);
+            }
+
+        }, replyError(result));
+    }
+
+    private void fetchChangesSince(final String token,
+                                   final boolean includeSystemApps,
+                                   final IconOptions iconOptions,
+                                   final boolean parallel,
+                                   final Set<String> fields,
+                                   final Result result) {
+        asyncWork.run(AsyncWork.Lane.BULK, new Runnable() {
+
+            @Override
+            public void run() {
+                final Map<String, Object> changes = getChangesSince(token, includeSystemApps, iconOptions, parallel, fields);
+
+                if (changes == null) {
+                    postError(result, "ERROR", "Plugin detached");
+                } else {
+                    postSuccess(result, changes);
+                }
+            }
+
+        }, replyError(result));
+    }
+
+    private void fetchApp(final String packageName,
+                          final IconOptions iconOptions,
+                          final Set<String> fields,
+                          final Result result) {
+        asyncWork.run(AsyncWork.Lane.INTERACTIVE, new Runnable() {
+
+            @Override
+            public void run() {
+                final Map<String, Object> app = getApp(packageName, iconOptions, fields);
+
+                postSuccess(result, app);
+            }
+
+        }, replyError(result));
+    }
+
+    private void fetchApps(final List<String> packageNames,
+                           final IconOptions iconOptions,
+                           final Set<String> fields,
+                           final Result result) {
+        asyncWork.run(AsyncWork.Lane.INTERACTIVE, new Runnable() {
+
+            @Override
+            public void run() {
+                final Map<String, Map<String, Object>> apps = getApps(packageNames, iconOptions, fields);
+
+                postSuccess(result, apps);
+            }
+
+        }, replyError(result));
+    }
+
+    /**
+     * With {@code single}, the result is a boolean, otherwise a map of package name -> boolean
+     */
+    private void fetchAppsInstalled(final List<String> packageNames,
+                                    final boolean single,
+                                    final Result result) {
+        asyncWork.run(AsyncWork.Lane.INTERACTIVE, new Runnable() {
+
+            @Override
+            public void run() {
+                final Map<String, Boolean> installed = areAppsInstalled(packageNames);
+
+                postSuccess(result, single ? installed.get(packageNames.get(0)) : installed);
+            }
+
+        }, replyError(result));
+    }
+
+    private void fetchAppIcons(final List<String> packageNames,
+                               final boolean forWorkProfile,
+                               final IconOptions iconOptions,
+                               final boolean parallel,
+                               final Result result) {
+        asyncWork.run(AsyncWork.Lane.INTERACTIVE, new Runnable() {
+
+            @Override
+            public void run() {
+                final Map<String, Map<String, Object>> icons = getAppIcons(packageNames, forWorkProfile, iconOptions, parallel);
+
+                postSuccess(result, icons);
+            }
+
+        }, replyError(result));
+    }
+
+    private List<Map<String, Object>> getWorkInstalledApps(boolean includeSystemApps, IconOptions iconOptions, boolean onlyAppsWithLaunchIntent, boolean parallel, Set<String> fields) {
+        if (context == null) {
+            Log.e(LOG_TAG, "Context is null");
+            return new ArrayList<>(0);
+        }
+
+        LauncherApps launcherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
+        UserHandle workProfile = getProfile(true);
+
+        if (workProfile == null) {
+            return new ArrayList<>(0);
+        }
+        return getInstalledApps(launcherApps, workProfile, true, includeSystemApps, iconOptions, parallel, fields);
+    }
+
+    private List<Map<String, Object>> getMainInstalledApps(boolean includeSystemApps, IconOptions iconOptions, boolean onlyAppsWithLaunchIntent, boolean parallel, Set<String> fields) {
+        if (context == null) {
+            Log.e(LOG_TAG, "Context is null");
+            return new ArrayList<>(0);
+        }
+
+        LauncherApps launcherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
+        UserHandle mainProfile = getProfile(false);
+
+        if (mainProfile == null) {
+            return new ArrayList<>(0);
+        }
+        return getInstalledApps(launcherApps, mainProfile, false, includeSystemApps, iconOptions, parallel, fields);
+    }
+
+    /**
+     * Apps of the given {@code profileIds} (all profiles if null), each profile being enumerated
+     * on its own thread. Apps are merged in the order of the profiles
+     */
+    private List<Map<String, Object>> getProfilesInstalledApps(List<Long> profileIds,
+                                                               final boolean includeSystemApps,
+                                                               final IconOptions iconOptions,
+                                                               final boolean parallel,
+                                                               final Set<String> fields) {
+        final ProfileRegistry registry = profileRegistry;
+        if (context == null || registry == null) {
+            Log.e(LOG_TAG, "Context is null");
+            return new ArrayList<>(0);
+        }
+
+        List<UserHandle> profiles;
+        if (profileIds == null) {
+            profiles = registry.getProfiles();
+        } else {
+            profiles = new ArrayList<>(profileIds.size());
+            for (Long profileId : profileIds) {
+                UserHandle profile = registry.getProfile(profileId);
+                if (profile == null) {
+                    Log.w(LOG_TAG, "Unknown profile " + profileId);
+                } else if (!profiles.contains(profile)) {
+                    profiles.add(profile);
+                }
+            }
+        }
+
+        final LauncherApps launcherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
+        List<List<Map<String, Object>>> profilesApps = asyncWork.mapConcurrently(profiles, new AsyncWork.Mapper<UserHandle, List<Map<String, Object>>>() {
+            @Override
+            public List<Map<String, Object>> map(UserHandle profile) {
+                return getInstalledApps(launcherApps, profile, !registry.isMainProfile(profile), includeSystemApps, iconOptions, parallel, fields);
+            }
+        });
+
+        int size = 0;
+        for (List<Map<String, Object>> apps : profilesApps) {
+            size += apps.size();
+        }
+
+        List<Map<String, Object>> installedApps = new ArrayList<>(size);
+        for (List<Map<String, Object>> apps : profilesApps) {
+            installedApps.addAll(apps);
+        }
+        return installedApps;
+    }
+
+    /**
+     * Ids sent by Dart may be Integers or Longs
+     */
+    private static List<Long> getProfileIds(MethodCall call) {
+        Object profiles = call.argument("profiles");
+        if (!(profiles instanceof List)) {
+            return null;
+        }
+
+        List<Long> profileIds = new ArrayList<>(((List<?>) profiles).size());
+        for (Object profileId : (List<?>) profiles) {
+            if (profileId instanceof Number) {
+                profileIds.add(((Number) profileId).longValue());
+            }
+        }
+        return profileIds;
+    }
+
+    private List<Map<String, Object>> getInstalledApps(LauncherApps launcherApps,
+                                                       UserHandle profile,
+                                                       boolean forWorkProfile,
+                                                       boolean includeSystemApps,
+                                                       IconOptions iconOptions,
+                                                       boolean parallel,
+                                                       Set<String> fields) {
+        List<AppsCatalog.Entry> entries = getCatalogEntries(launcherApps, profile, forWorkProfile, includeSystemApps, parallel, fields);
+        return getEntriesData(entries, iconOptions, parallel, fields);
+    }
+
+    private List<AppsCatalog.Entry> getCatalogEntries(LauncherApps launcherApps,
+                                                      UserHandle profile,
+                                                      boolean forWorkProfile,
+                                                      boolean includeSystemApps,
+                                                      boolean parallel,
+                                                      Set<String> fields) {
+        List<AppsCatalog.Entry> entries = appsCatalog.getEntries(launcherApps, profile, getEntryFactory(launcherApps, forWorkProfile, parallel, fields));
+        return includeSystemApps ? entries : filterSystemApps(entries);
+    }
+
+    private List<AppsCatalog.Entry> filterSystemApps(List<AppsCatalog.Entry> entries) {
+        List<AppsCatalog.Entry> filteredEntries = new ArrayList<>(entries.size());
+        for (AppsCatalog.Entry entry : entries) {
+            boolean systemApp;
+            synchronized (entry) {
+                systemApp = Boolean.TRUE.equals(entry.data.get(AppDataConstants.SYSTEM_APP));
+            }
+
+            if (!systemApp) {
+                filteredEntries.add(entry);
+            }
+        }
+        return filteredEntries;
+    }
+
+    /**
+     * Entries are created with the requested fields only (+ the ones always required by the
+     * catalog). Missing fields are added later, on demand
+     */
+    private AppsCatalog.EntryFactory getEntryFactory(final LauncherApps launcherApps,
+                                                     final boolean forWorkProfile,
+                                                     final boolean parallel,
+                                                     Set<String> fields) {
+        final Set<String> entryFields = getCatalogFields(fields);
+
+        return new AppsCatalog.EntryFactory() {
+            @Override
+            public List<AppsCatalog.Entry> createEntries(List<LauncherActivityInfo> activities) {
+                return asyncWork.map(activities, new AsyncWork.Mapper<LauncherActivityInfo, AppsCatalog.Entry>() {
+                    @Override
+                    public AppsCatalog.Entry map(LauncherActivityInfo activityInfo) {
+                        return new AppsCatalog.Entry(activityInfo, getAppData(launcherApps,
+                                activityInfo,
+                                activityInfo.getApplicationInfo(),
+                                null, forWorkProfile, entryFields));
+                    }
+                }, parallel);
+            }
+        };
+    }
+
+    private List<Map<String, Object>> getEntriesData(List<AppsCatalog.Entry> entries,
+                                                     final IconOptions iconOptions,
+                                                     boolean parallel,
+                                                     final Set<String> fields) {
+        // Only missing fields and icons are loaded, which is worth being spread across workers
+        return asyncWork.map(entries, new AsyncWork.Mapper<AppsCatalog.Entry, Map<String, Object>>() {
+            @Override
+            public Map<String, Object> map(AppsCatalog.Entry entry) {
+                return getEntryData(entry, iconOptions, fields);
+            }
+        }, parallel);
+    }
+
+    /**
+     * Returns a page of installed apps: only the apps of this page are serialized (and their icons
+     * loaded).
+     * The page token contains the offset of the next page and the last app sent, to be able to
+     * resume at the right position if the list has changed in the meantime
+     */
+    private Map<String, Object> getInstalledAppsPage(boolean forWorkProfile,
+                                                     boolean includeSystemApps,
+                                                     IconOptions iconOptions,
+                                                     boolean parallel,
+                                                     Set<String> fields,
+                                                     String pageToken,
+                                                     int pageSize) {
+        Map<String, Object> page = new HashMap<>(2);
+
+        if (context == null) {
+            Log.e(LOG_TAG, "Context is null");
+            page.put(PAGE_APPS, new ArrayList<>(0));
+            return page;
+        }
+
+        LauncherApps launcherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
+        UserHandle profile = getProfile(forWorkProfile);
+
+        if (profile == null) {
+            page.put(PAGE_APPS, new ArrayList<>(0));
+            return page;
+        }
+
+        List<AppsCatalog.Entry> entries = getCatalogEntries(launcherApps, profile, forWorkProfile, includeSystemApps, parallel, fields);
+        int start = getPageStart(entries, pageToken);
+        int end = Math.min(entries.size(), start + Math.max(1, pageSize));
+
+        page.put(PAGE_APPS, IconDeduplicator.shareDuplicates(getEntriesData(entries.subList(start, end), iconOptions, parallel, fields), metrics));
+
+        if (end < entries.size()) {
+            page.put(PAGE_NEXT_TOKEN, end + ":" + getEntryKey(entries.get(end - 1)));
+        }
+
+        return page;
+    }
+
+    /**
+     * Returns the apps of the main profile added, updated or removed since the {@code token}.
+     * If the token can't be used, all the apps are sent as added, with the reset flag
+     */
+    private Map<String, Object> getChangesSince(String token,
+                                                boolean includeSystemApps,
+                                                IconOptions iconOptions,
+                                                boolean parallel,
+                                                Set<String> fields) {
+        AppsChangesTracker tracker = changesTracker;
+        if (context == null || tracker == null) {
+            Log.e(LOG_TAG, "Context is null");
+            return null;
+        }
+
+        final LauncherApps launcherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
+        final UserHandle profile = getProfile(false);
+        final AppsCatalog.EntryFactory entryFactory = getEntryFactory(launcherApps, false, parallel, fields);
+
+        AppsChangesTracker.Changes changes = tracker.getChangesSince(token, new AppsChangesTracker.SnapshotProvider() {
+            @Override
+            public Map<String, Long> takeSnapshot() {
+                Map<String, Long> snapshot = new HashMap<>();
+                if (profile != null) {
+                    for (Map.Entry<String, List<AppsCatalog.Entry>> entry : appsCatalog.getPackages(launcherApps, profile, entryFactory).entrySet()) {
+                        snapshot.put(entry.getKey(), getLastUpdateTime(entry.getValue().get(0).activityInfo));
+                    }
+                }
+                return snapshot;
+            }
+        });
+
+        Map<String, Object> changesData = new HashMap<>(5);
+        changesData.put(CHANGES_TOKEN, changes.token);
+        changesData.put(CHANGES_RESET, changes.reset);
+
+        List<String> removed = new ArrayList<>(changes.removed);
+        if (profile == null) {
+            changesData.put(CHANGES_ADDED, new ArrayList<>(0));
+            changesData.put(CHANGES_UPDATED, new ArrayList<>(0));
+        } else if (changes.reset) {
+            changesData.put(CHANGES_ADDED, getInstalledApps(launcherApps, profile, false, includeSystemApps, iconOptions, parallel, fields));
+            changesData.put(CHANGES_UPDATED, new ArrayList<>(0));
+        } else {
+            // Broadcasts may have been missed for these packages
+            for (String packageName : changes.added) {
+                appsCatalog.invalidatePackage(packageName, profile);
+            }
+            for (String packageName : changes.updated) {
+                appsCatalog.invalidatePackage(packageName, profile);
+            }
+
+            Map<String, List<AppsCatalog.Entry>> packages = appsCatalog.getPackages(launcherApps, profile, entryFactory);
+            List<AppsCatalog.Entry> addedEntries = getChangedEntries(packages, changes.added, includeSystemApps, removed);
+            List<AppsCatalog.Entry> updatedEntries = getChangedEntries(packages, changes.updated, includeSystemApps, removed);
+
+            changesData.put(CHANGES_ADDED, IconDeduplicator.shareDuplicates(getEntriesData(addedEntries, iconOptions, parallel, fields), metrics));
+            changesData.put(CHANGES_UPDATED, IconDeduplicator.shareDuplicates(getEntriesData(updatedEntries, iconOptions, parallel, fields), metrics));
+        }
 
-            @Override
-            public void run() {
-                List<Map<String, Object>> installedApps = getMainInstalledApps(includeSystemApps, includeAppIcons, onlyAppsWithLaunchIntent);
+        changesData.put(CHANGES_REMOVED, removed);
+        return changesData;
+    }
 
-                if (callback != null) {
-                    callback.onInstalledAppsListAvailable(installedApps);
-                }
+    /**
+     * Packages without any (non system) launcher activity are reported as removed
+     */
+    private List<AppsCatalog.Entry> getChangedEntries(Map<String, List<AppsCatalog.Entry>> packages,
+                                                      Set<String> packageNames,
+                                                      boolean includeSystemApps,
+                                                      List<String> removed) {
+        List<AppsCatalog.Entry> changedEntries = new ArrayList<>(packageNames.size());
+        for (String packageName : packageNames) {
+            List<AppsCatalog.Entry> entries = packages.get(packageName);
+            if (entries != null && !includeSystemApps) {
+                entries = filterSystemApps(entries);
             }
 
-        });
+            if (entries == null || entries.isEmpty()) {
+                removed.add(packageName);
+            } else {
+                changedEntries.addAll(entries);
+            }
+        }
+        return changedEntries;
     }
 
-    private void fetchWorkInstalledApps(final boolean includeSystemApps, final boolean includeAppIcons, final boolean onlyAppsWithLaunchIntent, final InstalledAppsCallback callback) {
-        asyncWork.run(new Runnable() {
+    /**
+     * Only the apps selected by the {@code query} are serialized (and their icons loaded).
+     * With {@code onlyIfIndexed}, returns null if the catalog has to be loaded or indexed first
+     */
+    private Map<String, Object> queryApps(AppsQuery query,
+                                          boolean forWorkProfile,
+                                          IconOptions iconOptions,
+                                          final boolean parallel,
+                                          Set<String> fields,
+                                          boolean onlyIfIndexed) {
+        Map<String, Object> queryResult = new HashMap<>(2);
+        queryResult.put(QUERY_APPS, new ArrayList<>(0));
+        queryResult.put(QUERY_TOTAL, 0);
 
-            @Override
-            public void run() {
-                List<Map<String, Object>> installedApps = getWorkInstalledApps(includeSystemApps, includeAppIcons, onlyAppsWithLaunchIntent);
+        if (context == null) {
+            Log.e(LOG_TAG, "Context is null");
+            return queryResult;
+        }
+
+        LauncherApps launcherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
+        UserHandle profile = getProfile(forWorkProfile);
+        if (profile == null) {
+            return queryResult;
+        }
+
+        if (onlyIfIndexed && !appsCatalog.isLoaded(profile)) {
+            return null;
+        }
 
-                if (callback != null) {
-                    callback.onInstalledAppsListAvailable(installedApps);
+        List<AppsCatalog.Entry> entries = appsCatalog.getEntries(launcherApps, profile, getEntryFactory(launcherApps, forWorkProfile, parallel, AppsQuery.INDEX_FIELDS));
+        if (onlyIfIndexed) {
+            for (AppsCatalog.Entry entry : entries) {
+                if (entry.indexedApp == null) {
+                    return null;
                 }
             }
+        }
 
-        });
+        List<AppsQuery.IndexedApp> indexedApps = asyncWork.map(entries, new AsyncWork.Mapper<AppsCatalog.Entry, AppsQuery.IndexedApp>() {
+            @Override
+            public AppsQuery.IndexedApp map(AppsCatalog.Entry entry) {
+                return getIndexedApp(entry);
+            }
+        }, parallel);
+
+        AppsQuery.Result selection = query.select(indexedApps);
+        queryResult.put(QUERY_APPS, IconDeduplicator.shareDuplicates(getEntriesData(selection.entries, iconOptions, parallel, fields), metrics));
+        queryResult.put(QUERY_TOTAL, selection.total);
+        return queryResult;
     }
 
-    private List<Map<String, Object>> getWorkInstalledApps(boolean includeSystemApps, boolean includeAppIcons, boolean onlyAppsWithLaunchIntent) {
-        if (context == null) {
+    /**
+     * The {@code count} apps of the main profile the most used during the last {@code windowMs},
+     * the most used first. Only these apps are serialized (and their icons loaded)
+     */
+    private List<Map<String, Object>> getTopApps(int count,
+                                                 long windowMs,
+                                                 boolean includeSystemApps,
+                                                 IconOptions iconOptions,
+                                                 Set<String> fields) {
+        UsageStatsCache cache = usageStatsCache;
+        if (context == null || cache == null) {
             Log.e(LOG_TAG, "Context is null");
             return new ArrayList<>(0);
         }
 
+        // Without usage (eg: the permission is not granted), the catalog is not even loaded
+        Map<String, UsageStatsCache.Usage> usage = cache.get(windowMs);
+        if (usage.isEmpty() || count <= 0) {
+            return new ArrayList<>(0);
+        }
+
         LauncherApps launcherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
-        List<UserHandle> profiles = launcherApps.getProfiles();
-        List<LauncherActivityInfo> workApps = new ArrayList<>();
-        List<Map<String, Object>> installedWorkApps = new ArrayList<>();
-        UserHandle workProfileId = null;
+        UserHandle mainProfile = getProfile(false);
+        if (mainProfile == null) {
+            return new ArrayList<>(0);
+        }
 
-        if (!profiles.isEmpty()) {
-             // Assign the first profile to nonWorkProfileId
-            if (profiles.size() > 1) {
-                workProfileId = profiles.get(1);
-                System.out.println(workProfileId.toString());
-                System.out.println(workProfileId.toString());
-            }
+        List<AppsCatalog.Entry> entries = getCatalogEntries(launcherApps, mainProfile, false, includeSystemApps, false, fields);
+        return getEntriesData(UsageStatsCache.selectMostUsed(entries, usage, count), iconOptions, false, fields);
+    }
+
+    /**
+     * The index of an entry is only built once (entries are replaced when their package changes)
+     */
+    private AppsQuery.IndexedApp getIndexedApp(AppsCatalog.Entry entry) {
+        AppsQuery.IndexedApp indexedApp = entry.indexedApp;
+        if (indexedApp != null) {
+            return indexedApp;
         }
 
-        if(workProfileId != null) {
-            List<LauncherActivityInfo> activities = launcherApps.getActivityList(null, workProfileId);
-            workApps.addAll(activities);
-            System.out.println("workApps length: " + workApps.size());
-            for (LauncherActivityInfo activityInfo : workApps) {
-                ApplicationInfo appInfo = activityInfo.getApplicationInfo();
+        synchronized (entry) {
+            putAppFields(entry.data,
+                    entry.activityInfo,
+                    entry.activityInfo.getApplicationInfo(),
+                    Boolean.TRUE.equals(entry.data.get(AppDataConstants.FOR_WORK_PROFILE)),
+                    AppsQuery.INDEX_FIELDS);
 
-                if (!includeSystemApps && isSystemApp(appInfo)) {
-                    continue;
-                }
+            indexedApp = new AppsQuery.IndexedApp(entry, entry.data);
+            entry.indexedApp = indexedApp;
+        }
+        return indexedApp;
+    }
+
+    private static AppsQuery getAppsQuery(MethodCall call) {
+        Number category = call.argument("category");
+        Number offset = call.argument("offset");
+        Number limit = call.argument("limit");
+
+        return new AppsQuery(
+                (String) call.argument("query"),
+                "prefix".equals(call.argument("match")),
+                category != null ? category.intValue() : null,
+                Boolean.TRUE.equals(call.argument("system_apps")),
+                (Boolean) call.argument("enabled"),
+                AppsQuery.Sort.fromName((String) call.argument("sort")),
+                Boolean.TRUE.equals(call.argument("descending")),
+                offset != null ? offset.intValue() : 0,
+                limit != null ? limit.intValue() : 0);
+    }
+
+    private int getPageStart(List<AppsCatalog.Entry> entries, String pageToken) {
+        if (TextUtils.isEmpty(pageToken)) {
+            return 0;
+        }
+
+        int separator = pageToken.indexOf(':');
+        int offset;
+        try {
+            offset = Integer.parseInt(pageToken.substring(0, separator));
+        } catch (RuntimeException e) {
+            Log.w(LOG_TAG, "Invalid page token \"" + pageToken + "\"");
+            return 0;
+        }
+
+        String lastKey = pageToken.substring(separator + 1);
+        if (offset > 0 && offset <= entries.size() && lastKey.equals(getEntryKey(entries.get(offset - 1)))) {
+            return offset;
+        }
 
-                Map<String, Object> map = getAppData(launcherApps,
-                        activityInfo,
-                        appInfo,
-                        includeAppIcons, true);
-                installedWorkApps.add(map);
+        // The list has changed since the previous page: resume after the last app sent
+        for (int i = 0; i < entries.size(); i++) {
+            if (lastKey.equals(getEntryKey(entries.get(i)))) {
+                return i + 1;
             }
         }
-        return installedWorkApps;
+
+        return Math.max(0, Math.min(offset, entries.size()));
     }
 
-    private List<Map<String, Object>> getMainInstalledApps(boolean includeSystemApps, boolean includeAppIcons, boolean onlyAppsWithLaunchIntent) {
-        if (context == null) {
-            Log.e(LOG_TAG, "Context is null");
-            return new ArrayList<>(0);
+    private String getEntryKey(AppsCatalog.Entry entry) {
+        return entry.activityInfo.getComponentName().flattenToString();
+    }
+
+    private UserHandle getProfile(boolean forWorkProfile) {
+        ProfileRegistry registry = profileRegistry;
+        if (registry == null) {
+            return null;
         }
 
-        LauncherApps launcherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
-        List<UserHandle> profiles = launcherApps.getProfiles();
-        List<LauncherActivityInfo> apps = new ArrayList<>();
-        List<Map<String, Object>> installedApps = new ArrayList<>();
-        UserHandle mainProfileId = null;
+        return forWorkProfile ? registry.getWorkProfile() : registry.getMainProfile();
+    }
 
-        if (!profiles.isEmpty()) {
-            mainProfileId = profiles.get(0);
-            System.out.println(mainProfileId.toString());
-            // Assign the first profile to nonWorkProfileId
+    /**
+     * Cached records are shared between calls, so a copy is always returned
+     */
+    private Map<String, Object> getEntryData(AppsCatalog.Entry entry, IconOptions iconOptions, Set<String> fields) {
+        Map<String, Object> map;
+
+        // Entries are shared between concurrent requests
+        synchronized (entry) {
+            putAppFields(entry.data,
+                    entry.activityInfo,
+                    entry.activityInfo.getApplicationInfo(),
+                    Boolean.TRUE.equals(entry.data.get(AppDataConstants.FOR_WORK_PROFILE)),
+                    fields);
+
+            if (fields == null) {
+                map = new HashMap<>(entry.data);
+            } else {
+                map = new HashMap<>(fields.size() + 1);
+                map.put(AppDataConstants.PACKAGE_NAME, entry.data.get(AppDataConstants.PACKAGE_NAME));
+                for (String field : fields) {
+                    if (entry.data.containsKey(field)) {
+                        map.put(field, entry.data.get(field));
+                    }
+                }
+            }
         }
 
-        if(mainProfileId != null) {
-            List<LauncherActivityInfo> activities = launcherApps.getActivityList(null, mainProfileId);
-            apps.addAll(activities);
-            for (LauncherActivityInfo activityInfo : apps) {
-                ApplicationInfo appInfo = activityInfo.getApplicationInfo();
+        if (iconOptions != null) {
+            putEntryIcon(map, entry, iconOptions);
+        }
 
-                if (!includeSystemApps && isSystemApp(appInfo)) {
-                    continue;
-                }
+        metrics.count(Metrics.COUNTER_APPS, 1);
+        return map;
+    }
 
-                Map<String, Object> map = getAppData(launcherApps,
-                        activityInfo,
-                        appInfo,
-                        includeAppIcons, false);
-                installedApps.add(map);
+    private void putEntryIcon(Map<String, Object> map, AppsCatalog.Entry entry, IconOptions iconOptions) {
+        if (iconOptions.asFile) {
+            IconDiskCache.CachedIcon cachedIcon = getCachedAppIcon(entry.activityInfo, iconOptions);
+            if (cachedIcon != null) {
+                putAppIconFile(map, cachedIcon, iconOptions);
+                return;
             }
         }
-        return installedApps;
+
+        EncodedIcon icon = iconMemoryCache.get(entry, iconOptions);
+        if (icon == null) {
+            icon = getAppIcon(entry.activityInfo, iconOptions);
+            iconMemoryCache.put(entry, iconOptions, icon);
+        } else {
+            metrics.count(Metrics.COUNTER_ICONS_MEMORY_HITS, 1);
+        }
+        putAppIcon(map, icon);
     }
 
-    private boolean openApp(@NonNull String packageName, @NonNull boolean forWorkProfile) {
+    /**
+     * Renders the icons of the given packages only (the first launcher activity of each package).
+     * Unknown packages are ignored. Packages are directly queried if the catalog is not loaded
+     */
+    private Map<String, Map<String, Object>> getAppIcons(List<String> packageNames,
+                                                         boolean forWorkProfile,
+                                                         final IconOptions iconOptions,
+                                                         boolean parallel) {
+        Map<String, Map<String, Object>> icons = new HashMap<>(packageNames.size());
+
+        if (context == null) {
+            Log.e(LOG_TAG, "Context is null");
+            return icons;
+        }
+
         LauncherApps launcherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
-        List<UserHandle> profiles = launcherApps.getProfiles();
-        UserHandle mainProfileId = null;
-        if (!profiles.isEmpty()) {
-            if(!forWorkProfile) {
-                mainProfileId = profiles.get(0);
-            } else {
-                mainProfileId = profiles.get(1);
+        UserHandle profile = getProfile(forWorkProfile);
+        if (profile == null) {
+            return icons;
+        }
+
+        Map<String, List<AppsCatalog.Entry>> packages = getIndexedPackages(launcherApps, profile, forWorkProfile, packageNames);
+
+        List<AppsCatalog.Entry> entries = new ArrayList<>(packageNames.size());
+        for (String packageName : packageNames) {
+            List<AppsCatalog.Entry> packageEntries = packages.get(packageName);
+            if (packageEntries != null && !packageEntries.isEmpty()) {
+                entries.add(packageEntries.get(0));
             }
-            System.out.println(mainProfileId.toString());
-            // Assign the first profile to nonWorkProfileId
         }
-        // Check if the app is available under the given profile
-        List<LauncherActivityInfo> activities = launcherApps.getActivityList(packageName, mainProfileId);
-        for (LauncherActivityInfo activity : activities) {
-            // Check if the activity is launchable
-            if (activity.getApplicationInfo().packageName.equals(packageName)) {
-                ComponentName componentName = activity.getComponentName();
 
-                // Starting the main activity of the app
-                try {
-                    launcherApps.startMainActivity(componentName, mainProfileId, null, null);
-                    return true;
-                } catch (SecurityException e) {
-                    Log.w(LOG_TAG, "Failed to start app due to security exception", e);
-                    return false;
-                }
+        List<Map<String, Object>> iconsData = asyncWork.map(entries, new AsyncWork.Mapper<AppsCatalog.Entry, Map<String, Object>>() {
+            @Override
+            public Map<String, Object> map(AppsCatalog.Entry entry) {
+                Map<String, Object> iconData = new HashMap<>(4);
+                putEntryIcon(iconData, entry, iconOptions);
+                return iconData;
             }
+        }, parallel);
+
+        for (int i = 0; i < entries.size(); i++) {
+            icons.put(entries.get(i).activityInfo.getApplicationInfo().packageName, iconsData.get(i));
+        }
+        return icons;
+    }
+
+    /**
+     * The main activity of the app in the given profile, or null if it's not installed there
+     */
+    private ComponentName getMainActivity(LauncherApps launcherApps, UserHandle profile, boolean forWorkProfile, @NonNull String packageName) {
+        // Check if the app is available under the given profile
+        AppsCatalog.Entry entry = profile != null ? getIndexedEntry(launcherApps, profile, forWorkProfile, packageName) : null;
+        if (entry == null) {
+            Log.w(LOG_TAG, "Application with package name \"" + packageName + "\" is not installed on this device or profile");
+            return null;
         }
 
-        Log.w(LOG_TAG, "Application with package name \"" + packageName + "\" is not installed on this device or profile");
-        return false;
+        return entry.activityInfo.getComponentName();
     }
 
+    private boolean openApp(LauncherApps launcherApps, UserHandle profile, ComponentName componentName) {
+        // Starting the main activity of the app
+        try {
+            metrics.countBinderCall(Metrics.BINDER_START_MAIN_ACTIVITY);
+            launcherApps.startMainActivity(componentName, profile, null, null);
+            return true;
+        } catch (SecurityException e) {
+            Log.w(LOG_TAG, "Failed to start app due to security exception", e);
+            return false;
+        }
+    }
 
-    private boolean openAppSettings(@NonNull String packageName) {
+    private boolean canStartActivity(Context context, @NonNull String packageName, Intent intent) {
         if (!isAppInstalled(packageName)) {
             Log.w(LOG_TAG, "Application with package name \"" + packageName + "\" is not installed on this device");
             return false;
         }
 
-        Intent appSettingsIntent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
-        appSettingsIntent.setData(Uri.parse("package:" + packageName));
-        appSettingsIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-
-        if (IntentUtils.isIntentOpenable(appSettingsIntent, context)) {
-            context.startActivity(appSettingsIntent);
-            return true;
-        }
-
-        return false;
+        return IntentUtils.isIntentOpenable(intent, context);
     }
 
     private boolean isSystemApp(ApplicationInfo activityInfo) {
@@ -338,137 +1704,467 @@ public class DeviceAppsPlugin implements
     }
 
     private boolean isAppInstalled(@NonNull String packageName) {
-        LauncherApps launcherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
-        List<UserHandle> profiles = launcherApps.getProfiles();
+        return Boolean.TRUE.equals(areAppsInstalled(Collections.singletonList(packageName)).get(packageName));
+    }
+
+    /**
+     * An app is installed if it has a launcher activity in any profile
+     */
+    private Map<String, Boolean> areAppsInstalled(List<String> packageNames) {
+        Map<String, Boolean> installed = new HashMap<>(packageNames.size());
+        for (String packageName : packageNames) {
+            installed.put(packageName, false);
+        }
 
-        for (UserHandle profile : profiles) {
-            List<LauncherActivityInfo> activities = launcherApps.getActivityList(packageName, profile);
-            if (!activities.isEmpty()) {
-                // Found launcher activities for this package, so the app is installed
-                return true;
+        ProfileRegistry registry = profileRegistry;
+        if (context == null || registry == null) {
+            Log.e(LOG_TAG, "Context is null");
+            return installed;
+        }
+
+        LauncherApps launcherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
+        for (UserHandle profile : registry.getProfiles()) {
+            for (String packageName : getIndexedPackages(launcherApps, profile, !registry.isMainProfile(profile), packageNames).keySet()) {
+                installed.put(packageName, true);
             }
         }
 
-        // No launcher activities found, app is not installed
-        return false;
+        return installed;
+    }
+
+    private Map<String, Object> getApp(String packageName, IconOptions iconOptions, Set<String> fields) {
+        return getApps(Collections.singletonList(packageName), iconOptions, fields).get(packageName);
+    }
+
+    /**
+     * Apps of the main profile, indexed by package name (unknown packages are missing)
+     */
+    private Map<String, Map<String, Object>> getApps(List<String> packageNames, IconOptions iconOptions, Set<String> fields) {
+        Map<String, Map<String, Object>> apps = new HashMap<>(packageNames.size());
+
+        if (context == null) {
+            Log.e(LOG_TAG, "Context is null");
+            return apps;
+        }
+
+        LauncherApps launcherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
+        UserHandle profile = getProfile(false);
+        if (profile == null) {
+            return apps;
+        }
+
+        for (Map.Entry<String, List<AppsCatalog.Entry>> entry : getIndexedPackages(launcherApps, profile, false, packageNames).entrySet()) {
+            // The first activity of the package
+            apps.put(entry.getKey(), getEntryData(entry.getValue().get(0), iconOptions, fields));
+        }
+        return apps;
     }
 
-    private Map<String, Object> getApp(String packageName, boolean includeAppIcon) {
+    /**
+     * Events are sent from the main thread, which must not wait for the catalog (that may be
+     * loading in the background): the package is directly queried
+     */
+    private Map<String, Object> getUncachedApp(String packageName) {
+        // Called in the background: the plugin may have been detached
+        Context context = this.context;
+        if (context == null) {
+            return null;
+        }
+
         LauncherApps launcherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
-        List<UserHandle> profiles = launcherApps.getProfiles();
+        UserHandle profile = getProfile(false);
+
+        if (profile == null) {
+            return null;
+        }
 
-        List<LauncherActivityInfo> activities = launcherApps.getActivityList(packageName, profiles.get(0));
+        metrics.countBinderCall(Metrics.BINDER_GET_ACTIVITY_LIST);
+        List<LauncherActivityInfo> activities = launcherApps.getActivityList(packageName, profile);
         if (activities.isEmpty()) {
-            // No activities found for the package in the given profile, return null
             return null;
         }
 
-        // Assuming the first activity info is what we need
         LauncherActivityInfo activityInfo = activities.get(0);
+        return getAppData(launcherApps, activityInfo, activityInfo.getApplicationInfo(), null, false, null);
+    }
+
+    private AppsCatalog.Entry getIndexedEntry(LauncherApps launcherApps, UserHandle profile, boolean forWorkProfile, String packageName) {
+        List<AppsCatalog.Entry> entries = getIndexedPackages(launcherApps, profile, forWorkProfile, Collections.singletonList(packageName)).get(packageName);
+        return entries != null && !entries.isEmpty() ? entries.get(0) : null;
+    }
+
+    /**
+     * Looks up packages in the catalog. Entries created for the lookup only contain the fields
+     * required by the catalog, others are loaded on demand.
+     * If the catalog is not loaded yet, packages are directly queried instead of waiting for the
+     * enumeration (eg: a user opening an app). Beyond a few packages, lookups are batched on the
+     * worker pool and the catalog is loaded in the background, for the next calls
+     */
+    private Map<String, List<AppsCatalog.Entry>> getIndexedPackages(final LauncherApps launcherApps, final UserHandle profile, boolean forWorkProfile, List<String> packageNames) {
+        final AppsCatalog.EntryFactory entryFactory = getEntryFactory(launcherApps, forWorkProfile, false, Collections.<String>emptySet());
+        if (appsCatalog.isLoaded(profile)) {
+            return appsCatalog.getPackages(launcherApps, profile, entryFactory, packageNames);
+        }
+
+        boolean batched = packageNames.size() > MAX_DIRECT_LOOKUPS;
+        if (batched) {
+            loadCatalog(launcherApps, profile, entryFactory);
+        }
+
+        List<List<AppsCatalog.Entry>> entries = asyncWork.map(packageNames, new AsyncWork.Mapper<String, List<AppsCatalog.Entry>>() {
+            @Override
+            public List<AppsCatalog.Entry> map(String packageName) {
+                metrics.countBinderCall(Metrics.BINDER_GET_ACTIVITY_LIST);
+                List<LauncherActivityInfo> activities = launcherApps.getActivityList(packageName, profile);
+                return activities.isEmpty() ? null : entryFactory.createEntries(activities);
+            }
+        }, batched);
+
+        Map<String, List<AppsCatalog.Entry>> packages = new HashMap<>(packageNames.size());
+        for (int i = 0; i < packageNames.size(); i++) {
+            if (entries.get(i) != null) {
+                packages.put(packageNames.get(i), entries.get(i));
+            }
+        }
+        return packages;
+    }
+
+    /**
+     * Enumerates the {@code profile} in the background, if its catalog is not loaded yet
+     */
+    private void loadCatalog(final LauncherApps launcherApps, final UserHandle profile, final AppsCatalog.EntryFactory entryFactory) {
+        asyncWork.run(AsyncWork.Lane.BULK, new Runnable() {
+
+            @Override
+            public void run() {
+                if (!appsCatalog.isLoaded(profile)) {
+                    appsCatalog.getPackages(launcherApps, profile, entryFactory);
+                }
+            }
 
-        return getAppData(launcherApps,
-                activityInfo,
-                activityInfo.getApplicationInfo(),
-                includeAppIcon, false);
+        });
     }
 
     private Map<String, Object> getAppData(LauncherApps launcherApps,
                                            LauncherActivityInfo activityInfo,
                                            ApplicationInfo applicationInfo,
-                                           boolean includeAppIcon,
-                                           boolean forWorkProfile) {
+                                           IconOptions iconOptions,
+                                           boolean forWorkProfile,
+                                           Set<String> fields) {
         Map<String, Object> map = new HashMap<>();
-        map.put(AppDataConstants.APP_NAME, activityInfo.getLabel().toString());
-        map.put(AppDataConstants.APK_FILE_PATH, applicationInfo.sourceDir);
-        map.put(AppDataConstants.PACKAGE_NAME, activityInfo.getApplicationInfo().packageName);
-        map.put(AppDataConstants.VERSION_CODE, 1);
-        map.put(AppDataConstants.VERSION_NAME, "1");
-        map.put(AppDataConstants.DATA_DIR, applicationInfo.dataDir);
-        map.put(AppDataConstants.SYSTEM_APP, isSystemApp(applicationInfo));
-        map.put(AppDataConstants.INSTALL_TIME, 0);
-        map.put(AppDataConstants.UPDATE_TIME, 0);
-        map.put(AppDataConstants.IS_ENABLED, applicationInfo.enabled);
-        map.put(AppDataConstants.FOR_WORK_PROFILE, forWorkProfile);
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+        map.put(AppDataConstants.PACKAGE_NAME, applicationInfo.packageName);
+        putAppFields(map, activityInfo, applicationInfo, forWorkProfile, fields);
+
+        if (iconOptions != null) {
+            IconDiskCache.CachedIcon cachedIcon = iconOptions.asFile ? getCachedAppIcon(activityInfo, iconOptions) : null;
+            if (cachedIcon != null) {
+                putAppIconFile(map, cachedIcon, iconOptions);
+            } else {
+                putAppIcon(map, getAppIcon(activityInfo, iconOptions));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Adds the requested {@code fields} (all if null) missing from the {@code map}
+     */
+    private void putAppFields(Map<String, Object> map,
+                              LauncherActivityInfo activityInfo,
+                              ApplicationInfo applicationInfo,
+                              boolean forWorkProfile,
+                              Set<String> fields) {
+        Metrics.Span span = metrics.startStage(Metrics.STAGE_APP_DATA);
+        try {
+            putMissingAppFields(map, activityInfo, applicationInfo, forWorkProfile, fields);
+        } finally {
+            span.end();
+        }
+    }
+
+    private void putMissingAppFields(Map<String, Object> map,
+                                     LauncherActivityInfo activityInfo,
+                                     ApplicationInfo applicationInfo,
+                                     boolean forWorkProfile,
+                                     Set<String> fields) {
+        if (isFieldMissing(map, fields, AppDataConstants.APP_NAME)) {
+            // Reads the resources of the app: this is the slowest field
+            map.put(AppDataConstants.APP_NAME, activityInfo.getLabel().toString());
+        }
+        if (isFieldMissing(map, fields, AppDataConstants.APK_FILE_PATH)) {
+            map.put(AppDataConstants.APK_FILE_PATH, applicationInfo.sourceDir);
+        }
+
+        boolean versionCodeMissing = isFieldMissing(map, fields, AppDataConstants.VERSION_CODE);
+        boolean versionNameMissing = isFieldMissing(map, fields, AppDataConstants.VERSION_NAME);
+        boolean installTimeMissing = isFieldMissing(map, fields, AppDataConstants.INSTALL_TIME);
+        boolean updateTimeMissing = isFieldMissing(map, fields, AppDataConstants.UPDATE_TIME);
+        if (versionCodeMissing || versionNameMissing || installTimeMissing || updateTimeMissing) {
+            // Versions are unknown for other profiles
+            PackageInfo packageInfo = getPackageInfo(activityInfo);
+
+            if (versionCodeMissing) {
+                map.put(AppDataConstants.VERSION_CODE, packageInfo != null ? getVersionCode(packageInfo) : null);
+            }
+            if (versionNameMissing) {
+                map.put(AppDataConstants.VERSION_NAME, packageInfo != null ? packageInfo.versionName : null);
+            }
+            if (installTimeMissing) {
+                map.put(AppDataConstants.INSTALL_TIME, packageInfo != null ? packageInfo.firstInstallTime : activityInfo.getFirstInstallTime());
+            }
+            if (updateTimeMissing) {
+                map.put(AppDataConstants.UPDATE_TIME, packageInfo != null ? packageInfo.lastUpdateTime : getApkUpdateTime(applicationInfo));
+            }
+        }
+
+        if (isFieldMissing(map, fields, AppDataConstants.DATA_DIR)) {
+            map.put(AppDataConstants.DATA_DIR, applicationInfo.dataDir);
+        }
+        if (isFieldMissing(map, fields, AppDataConstants.SYSTEM_APP)) {
+            map.put(AppDataConstants.SYSTEM_APP, isSystemApp(applicationInfo));
+        }
+        if (isFieldMissing(map, fields, AppDataConstants.IS_ENABLED)) {
+            map.put(AppDataConstants.IS_ENABLED, applicationInfo.enabled);
+        }
+        if (isFieldMissing(map, fields, AppDataConstants.FOR_WORK_PROFILE)) {
+            map.put(AppDataConstants.FOR_WORK_PROFILE, forWorkProfile);
+        }
+        if (isFieldMissing(map, fields, AppDataConstants.PROFILE_ID)) {
+            map.put(AppDataConstants.PROFILE_ID, getProfileId(activityInfo.getUser()));
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && isFieldMissing(map, fields, AppDataConstants.CATEGORY)) {
             map.put(AppDataConstants.CATEGORY, applicationInfo.category);
         }
+    }
 
-        if (includeAppIcon) {
-            Drawable icon = activityInfo.getBadgedIcon(0);
-            String encodedImage = encodeToBase64(getBitmapFromDrawable(icon), Bitmap.CompressFormat.PNG, 100);
-            map.put(AppDataConstants.APP_ICON, encodedImage);
+    /**
+     * Returns null for apps of other profiles (or if the package was just uninstalled)
+     */
+    private PackageInfo getPackageInfo(LauncherActivityInfo activityInfo) {
+        PackageInfoCache cache = packageInfoCache;
+        ProfileRegistry registry = profileRegistry;
+        if (cache == null || registry == null || !registry.isMainProfile(activityInfo.getUser())) {
+            return null;
         }
-        return map;
+
+        return cache.get(activityInfo.getApplicationInfo().packageName);
     }
 
-    private boolean uninstallApp(@NonNull String packageName) {
-        if (!isAppInstalled(packageName)) {
-            Log.w(LOG_TAG, "Application with package name \"" + packageName + "\" is not installed on this device");
-            return false;
+    @SuppressWarnings("deprecation")
+    private static long getVersionCode(PackageInfo packageInfo) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            return packageInfo.getLongVersionCode();
         }
+        return packageInfo.versionCode;
+    }
 
-        Intent appSettingsIntent = new Intent(Intent.ACTION_DELETE);
-        appSettingsIntent.setData(Uri.parse("package:" + packageName));
-        appSettingsIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+    private static boolean isFieldMissing(Map<String, Object> map, Set<String> fields, String field) {
+        return (fields == null || fields.contains(field)) && !map.containsKey(field);
+    }
 
-        if (IntentUtils.isIntentOpenable(appSettingsIntent, context)) {
-            context.startActivity(appSettingsIntent);
-            return true;
+    /**
+     * Fields always stored in the catalog, since they are required to filter its entries
+     */
+    private static Set<String> getCatalogFields(Set<String> fields) {
+        if (fields == null) {
+            return null;
         }
 
-        return false;
+        Set<String> catalogFields = new HashSet<>(fields);
+        catalogFields.add(AppDataConstants.SYSTEM_APP);
+        catalogFields.add(AppDataConstants.FOR_WORK_PROFILE);
+        return catalogFields;
+    }
+
+    /**
+     * Returns the list of fields to compute and send, or null for all of them
+     */
+    private static Set<String> getFields(MethodCall call) {
+        List<String> fields = call.argument("fields");
+        return fields != null ? new HashSet<>(fields) : null;
     }
 
-    private UserHandle getUserHandleForId(int profileId) {
-        UserManager userManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
-        List<UserHandle> profiles = userManager.getUserProfiles();
+    private EncodedIcon getAppIcon(LauncherActivityInfo activityInfo, IconOptions iconOptions) {
+        IconDiskCache diskCache = iconDiskCache;
+        String cacheKey = diskCache != null ? getIconCacheKey(activityInfo, iconOptions) : null;
 
-        for (UserHandle profile : profiles) {
-            int id = generateIdForUserHandle(profile); // This method needs to be defined
-            if (id == profileId) {
-                return profile;
+        if (cacheKey != null) {
+            IconDiskCache.CachedIcon cachedIcon = diskCache.get(cacheKey);
+            if (cachedIcon != null) {
+                metrics.count(Metrics.COUNTER_ICONS_DISK_HITS, 1);
+                try {
+                    byte[] bytes = iconDeduplicator.intern(IconDiskCache.readBytes(cachedIcon.file));
+                    return new EncodedIcon(bytes, cachedIcon.width, cachedIcon.height, iconOptions.format);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Unable to read the cached icon " + cachedIcon.file.getName(), e);
+                }
             }
         }
 
-        return null; // Return null if no matching profile is found
+        EncodedIcon encodedIcon = renderAppIcon(activityInfo, iconOptions);
+        if (cacheKey != null) {
+            diskCache.put(cacheKey, encodedIcon);
+        }
+        return new EncodedIcon(iconDeduplicator.intern(encodedIcon.bytes), encodedIcon.width, encodedIcon.height, encodedIcon.format);
+    }
+
+    /**
+     * Returns the icon file from the disk cache (the icon is rendered if necessary), or null if
+     * the icon can't be cached
+     */
+    private IconDiskCache.CachedIcon getCachedAppIcon(LauncherActivityInfo activityInfo, IconOptions iconOptions) {
+        IconDiskCache diskCache = iconDiskCache;
+        String cacheKey = diskCache != null ? getIconCacheKey(activityInfo, iconOptions) : null;
+        if (cacheKey == null) {
+            return null;
+        }
+
+        IconDiskCache.CachedIcon cachedIcon = diskCache.get(cacheKey);
+        if (cachedIcon == null) {
+            cachedIcon = diskCache.put(cacheKey, renderAppIcon(activityInfo, iconOptions));
+        } else {
+            metrics.count(Metrics.COUNTER_ICONS_DISK_HITS, 1);
+        }
+        return cachedIcon;
+    }
+
+    private String getIconCacheKey(LauncherActivityInfo activityInfo, IconOptions iconOptions) {
+        if (!IconDiskCache.isSupported(iconOptions)) {
+            return null;
+        }
+
+        ApplicationInfo applicationInfo = activityInfo.getApplicationInfo();
+        return IconDiskCache.getKey(applicationInfo.packageName, getProfileId(activityInfo.getUser()), getLastUpdateTime(activityInfo), iconOptions);
     }
 
-    private int generateIdForUserHandle(UserHandle userHandle) {
-        // Implement this method to generate a consistent integer ID for a UserHandle
-        // The implementation will depend on your app's logic and requirements
-        // One potential way (with limitations) could be using UserHandle.hashCode()
-        return userHandle.hashCode();
+    private long getLastUpdateTime(LauncherActivityInfo activityInfo) {
+        PackageInfo packageInfo = getPackageInfo(activityInfo);
+        return packageInfo != null ? packageInfo.lastUpdateTime : getApkUpdateTime(activityInfo.getApplicationInfo());
     }
 
-    @Override
-    public void onListen(Object arguments, final EventChannel.EventSink events) {
-        if (context != null) {
-            if (appsListener == null) {
-                appsListener = new DeviceAppsChangedListener(this);
-            }
+    private static long getApkUpdateTime(ApplicationInfo applicationInfo) {
+        // The APK is replaced on each update
+        return new File(applicationInfo.sourceDir).lastModified();
+    }
 
-            appsListener.register(context, events);
+    private long getProfileId(UserHandle profile) {
+        ProfileRegistry registry = profileRegistry;
+        if (registry == null) {
+            // Detached: the id is only used in cache keys
+            return profile.hashCode();
         }
+        return registry.getId(profile);
     }
 
-    @Override
-    public void onPackageInstalled(String packageName, EventChannel.EventSink events) {
-        events.success(getListenerData(packageName, AppDataEventConstants.EVENT_TYPE_INSTALLED));
+    private EncodedIcon renderAppIcon(LauncherActivityInfo activityInfo, IconOptions iconOptions) {
+        Metrics.Span span = metrics.startStage(Metrics.STAGE_ICON_RENDER);
+        try {
+            Drawable icon = activityInfo.getBadgedIcon(0);
+            // The bitmap is only used to be encoded, so it can be reused for the next icon
+            return encode(drawToReusableBitmap(icon, iconOptions.size), iconOptions);
+        } finally {
+            span.end();
+            metrics.count(Metrics.COUNTER_ICONS_RENDERED, 1);
+        }
+    }
+
+    private void putAppIconFile(Map<String, Object> map, IconDiskCache.CachedIcon icon, IconOptions iconOptions) {
+        map.put(AppDataConstants.APP_ICON_PATH, icon.file.getAbsolutePath());
+        map.put(AppDataConstants.APP_ICON_FORMAT, iconOptions.format.name);
+        map.put(AppDataConstants.APP_ICON_WIDTH, icon.width);
+        map.put(AppDataConstants.APP_ICON_HEIGHT, icon.height);
+    }
+
+    private void putAppIcon(Map<String, Object> map, EncodedIcon icon) {
+        map.put(AppDataConstants.APP_ICON, icon.bytes);
+        map.put(AppDataConstants.APP_ICON_FORMAT, icon.format.name);
+        map.put(AppDataConstants.APP_ICON_WIDTH, icon.width);
+        map.put(AppDataConstants.APP_ICON_HEIGHT, icon.height);
+    }
+
+    private static IconOptions getIconOptions(MethodCall call) {
+        Integer size = call.argument("icon_size");
+        String format = call.argument("icon_format");
+        Integer quality = call.argument("icon_quality");
+        boolean asFile = call.hasArgument("icon_as_file") && (Boolean) (call.argument("icon_as_file"));
+
+        return new IconOptions(size != null ? size : IconOptions.DEFAULT.size,
+                format != null ? IconOptions.Format.fromName(format) : IconOptions.DEFAULT.format,
+                quality != null ? quality : IconOptions.DEFAULT.quality,
+                asFile);
     }
 
     @Override
-    public void onPackageUpdated(String packageName, EventChannel.EventSink events) {
-        events.success(getListenerData(packageName, AppDataEventConstants.EVENT_TYPE_UPDATED));
+    public void onListen(Object arguments, final EventChannel.EventSink events) {
+        if (appsListener != null) {
+            appsListener.addSink(events);
+        }
     }
 
     @Override
-    public void onPackageUninstalled(String packageName, EventChannel.EventSink events) {
-        events.success(getListenerData(packageName, AppDataEventConstants.EVENT_TYPE_UNINSTALLED));
+    public void onPackageStateChanged(final String packageName) {
+        // Broadcasts are only received for the profile of the app (other profiles are invalidated
+        // by the LauncherApps callback of the catalog)
+        appsCatalog.invalidatePackage(packageName, Process.myUserHandle());
+
+        PackageInfoCache cache = packageInfoCache;
+        if (cache != null) {
+            cache.invalidatePackage(packageName);
+        }
+
+        final IconDiskCache diskCache = iconDiskCache;
+        if (diskCache != null) {
+            // Files are deleted in the background
+            asyncWork.run(AsyncWork.Lane.BULK, new Runnable() {
+                @Override
+                public void run() {
+                    diskCache.invalidatePackage(packageName);
+                }
+            });
+        }
     }
 
     @Override
-    public void onPackageChanged(String packageName, EventChannel.EventSink events) {
+    public void onPackageEvent(final String packageName, final String eventType) {
+        // The app is fetched once in the background, then sent to all the sinks (in order, the
+        // lane being sequential)
+        asyncWork.run(AsyncWork.Lane.INTERACTIVE, new Runnable() {
+            @Override
+            public void run() {
+                final Map<String, Object> eventData = getEventData(packageName, eventType);
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        DeviceAppsChangedListener listener = appsListener;
+                        if (listener != null) {
+                            listener.sendEvent(packageName, eventType, eventData);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * The event type is {@code "changed"} when the app was enabled or disabled
+     */
+    private Map<String, Object> getEventData(String packageName, String eventType) {
+        if (AppDataEventConstants.EVENT_TYPE_UNINSTALLED.equals(eventType)) {
+            // No need to look for an uninstalled app
+            Map<String, Object> data = new HashMap<>(2);
+            data.put(AppDataEventConstants.PACKAGE_NAME, packageName);
+            data.put(AppDataEventConstants.EVENT_TYPE, eventType);
+            return data;
+        } else if (AppDataEventConstants.EVENT_TYPE_INSTALLED.equals(eventType)
+                || AppDataEventConstants.EVENT_TYPE_UPDATED.equals(eventType)) {
+            return getListenerData(packageName, eventType);
+        }
+        return getChangedListenerData(packageName);
+    }
+
+    private Map<String, Object> getChangedListenerData(String packageName) {
         Map<String, Object> listenerData = getListenerData(packageName, null);
 
         if (listenerData.get(AppDataConstants.IS_ENABLED) == Boolean.valueOf(true)) {
@@ -477,11 +2173,11 @@ public class DeviceAppsPlugin implements
             listenerData.put(AppDataEventConstants.EVENT_TYPE, AppDataEventConstants.EVENT_TYPE_ENABLED);
         }
 
-        events.success(listenerData);
+        return listenerData;
     }
 
     Map<String, Object> getListenerData(String packageName, String event) {
-        Map<String, Object> data = getApp(packageName, false);
+        Map<String, Object> data = getUncachedApp(packageName);
 
         // The app is not installed
         if (data == null) {
@@ -498,8 +2194,8 @@ public class DeviceAppsPlugin implements
 
     @Override
     public void onCancel(Object arguments) {
-        if (context != null && appsListener != null) {
-            appsListener.unregister(context);
+        if (appsListener != null) {
+            appsListener.removeSinks();
         }
     }
 
@@ -508,6 +2204,8 @@ public class DeviceAppsPlugin implements
         asyncWork.stop();
 
         if (methodChannel != null) {
+            // Snapshots being revalidated won't be answered
+            methodChannel.invokeMethod("onDetached", null);
             methodChannel.setMethodCallHandler(null);
             methodChannel = null;
         }
@@ -517,11 +2215,60 @@ public class DeviceAppsPlugin implements
             eventChannel = null;
         }
 
+        if (batchedEventChannel != null) {
+            batchedEventChannel.setStreamHandler(null);
+            batchedEventChannel = null;
+        }
+
+        if (compactChannel != null) {
+            compactChannel.setMessageHandler(null);
+            compactChannel = null;
+        }
+
         if (appsListener != null) {
             appsListener.unregister(context);
             appsListener = null;
         }
 
+        if (context != null) {
+            appsCatalog.unregister((LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE));
+        }
+        appsCatalog.clear();
+        iconMemoryCache.clear();
+        iconDeduplicator.clear();
+
+        if (usageStatsCache != null) {
+            usageStatsCache.clear();
+            usageStatsCache = null;
+        }
+        final IconDiskCache diskCache = iconDiskCache;
+        if (diskCache != null) {
+            iconDiskCache = null;
+
+            // The lanes are stopped, and the main thread must not wait for the disk
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    diskCache.persist();
+                }
+            }, "device_apps_persist").start();
+        }
+        snapshotFile = null;
+
+        if (changesTracker != null) {
+            changesTracker.clear();
+            changesTracker = null;
+        }
+
+        if (profileRegistry != null) {
+            profileRegistry.unregister();
+            profileRegistry = null;
+        }
+
+        if (packageInfoCache != null) {
+            packageInfoCache.clear();
+            packageInfoCache = null;
+        }
         context = null;
     }
 }
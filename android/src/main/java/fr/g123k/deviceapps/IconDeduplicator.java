@@ -0,0 +1,107 @@
+package fr.g123k.deviceapps;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import fr.g123k.deviceapps.utils.AppDataConstants;
+
+/**
+ * Many apps have byte-identical icons (eg: the default icon, or the same badged icon in a work
+ * profile). Encoded icons are interned by content, so that identical icons share a single array,
+ * and each one is only sent once per list: the next apps with the same icon reference the first
+ * one (see {@link AppDataConstants#APP_ICON_REF}).
+ */
+class IconDeduplicator {
+
+    // Content hash (with the length) -> icon, released once no cache keeps it
+    private final Map<Long, WeakReference<byte[]>> icons;
+    private int purgeThreshold;
+
+    IconDeduplicator() {
+        this.icons = new HashMap<>();
+        this.purgeThreshold = 64;
+    }
+
+    /**
+     * Returns a previously interned array with the same content, or {@code bytes}
+     */
+    byte[] intern(byte[] bytes) {
+        Long key = ((long) Arrays.hashCode(bytes) << 32) | bytes.length;
+
+        synchronized (this) {
+            WeakReference<byte[]> reference = icons.get(key);
+            byte[] interned = reference != null ? reference.get() : null;
+            if (interned != null) {
+                // Collisions are unlikely: the icon is then only not shared
+                return Arrays.equals(interned, bytes) ? interned : bytes;
+            }
+
+            icons.put(key, new WeakReference<>(bytes));
+            if (icons.size() > purgeThreshold) {
+                purge();
+            }
+            return bytes;
+        }
+    }
+
+    synchronized void clear() {
+        icons.clear();
+    }
+
+    private void purge() {
+        Iterator<WeakReference<byte[]>> iterator = icons.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().get() == null) {
+                iterator.remove();
+            }
+        }
+        purgeThreshold = Math.max(64, icons.size() * 2);
+    }
+
+    /**
+     * Replaces the icons already sent by a previous app of the list with the index of this app.
+     * Maps are shared with the caches, so apps with a reference are copies
+     */
+    static List<Map<String, Object>> shareDuplicates(List<Map<String, Object>> apps, Metrics metrics) {
+        // Icons are interned: identical icons are the same array
+        Map<byte[], Integer> firstIndexes = null;
+        List<Map<String, Object>> sharedApps = null;
+
+        for (int i = 0; i < apps.size(); i++) {
+            Map<String, Object> app = apps.get(i);
+            Object icon = app.get(AppDataConstants.APP_ICON);
+            if (!(icon instanceof byte[])) {
+                continue;
+            }
+
+            if (firstIndexes == null) {
+                firstIndexes = new IdentityHashMap<>(apps.size());
+            }
+
+            Integer firstIndex = firstIndexes.get(icon);
+            if (firstIndex == null) {
+                firstIndexes.put((byte[]) icon, i);
+                continue;
+            }
+
+            if (sharedApps == null) {
+                sharedApps = new ArrayList<>(apps);
+            }
+
+            Map<String, Object> sharedApp = new HashMap<>(app);
+            sharedApp.remove(AppDataConstants.APP_ICON);
+            sharedApp.put(AppDataConstants.APP_ICON_REF, firstIndex);
+            sharedApps.set(i, sharedApp);
+            metrics.count(Metrics.COUNTER_ICONS_DEDUPLICATED, 1);
+        }
+
+        return sharedApps != null ? sharedApps : apps;
+    }
+
+}
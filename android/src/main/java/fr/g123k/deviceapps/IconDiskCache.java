@@ -0,0 +1,291 @@
+package fr.g123k.deviceapps;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fr.g123k.deviceapps.utils.EncodedIcon;
+import fr.g123k.deviceapps.utils.IconOptions;
+
+/**
+ * Encoded icons, stored in the cache dir of the app, with a LRU eviction once the size budget is
+ * exceeded.
+ * Files are named {@code package@userSerial@lastUpdateTime@iconOptions@widthxheight.ext}, which
+ * allows to rebuild the index from the file names only.
+ * The LRU order is kept in memory: it is only written to the files (their last modified time)
+ * once enough icons have been used, when the cache is trimmed or when it is persisted, instead of
+ * on every hit.
+ */
+class IconDiskCache {
+
+    private static final String LOG_TAG = "DEVICE_APPS";
+    private static final String DIRECTORY_NAME = "device_apps_icons";
+    private static final String SEPARATOR = "@";
+    private static final int MAX_PENDING_TOUCHES = 64;
+
+    private final File directory;
+    private final long maxSizeBytes;
+
+    // Access-ordered: the first entry is the least recently used one
+    private final LinkedHashMap<String, CachedIcon> index;
+    // Keys used since the LRU order has been persisted
+    private final Set<String> pendingTouches;
+    private long sizeBytes;
+    private boolean indexLoaded;
+
+    IconDiskCache(File cacheDir, long maxSizeBytes) {
+        this.directory = new File(cacheDir, DIRECTORY_NAME);
+        this.maxSizeBytes = maxSizeBytes;
+        this.index = new LinkedHashMap<>(64, 0.75f, true);
+        this.pendingTouches = new HashSet<>();
+    }
+
+    static boolean isSupported(IconOptions options) {
+        // Raw pixels are as expensive to read from the disk as to render
+        return options.format != IconOptions.Format.RAW_RGBA;
+    }
+
+    static String getKey(String packageName, long userSerial, long lastUpdateTime, IconOptions options) {
+        return packageName + SEPARATOR + userSerial + SEPARATOR + lastUpdateTime + SEPARATOR + options.getKey();
+    }
+
+    synchronized CachedIcon get(String key) {
+        ensureIndexLoaded();
+
+        CachedIcon icon = index.get(key);
+        if (icon == null) {
+            return null;
+        }
+
+        if (!icon.file.exists()) {
+            removeFromIndex(key);
+            return null;
+        }
+
+        pendingTouches.add(key);
+        if (pendingTouches.size() >= MAX_PENDING_TOUCHES) {
+            persist();
+        }
+        return icon;
+    }
+
+    synchronized CachedIcon put(String key, EncodedIcon encodedIcon) {
+        ensureIndexLoaded();
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.w(LOG_TAG, "Unable to create the icons cache directory");
+            return null;
+        }
+
+        // The same file name may already be indexed
+        removeFromIndex(key);
+
+        File file = new File(directory, key + SEPARATOR + encodedIcon.width + "x" + encodedIcon.height + "." + getExtension(encodedIcon.format));
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(file);
+            outputStream.write(encodedIcon.bytes);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to write the icon " + file.getName(), e);
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(outputStream);
+        }
+
+        CachedIcon icon = new CachedIcon(file, encodedIcon.width, encodedIcon.height);
+        index.put(key, icon);
+        pendingTouches.add(key);
+        sizeBytes += file.length();
+
+        trimToSize();
+        return icon;
+    }
+
+    /**
+     * Writes the LRU order to the files used since the last call, so that it is kept between two
+     * launches of the app
+     */
+    synchronized void persist() {
+        if (pendingTouches.isEmpty()) {
+            return;
+        }
+
+        // Used entries are the last ones of the index: their order is kept with increasing times
+        long time = System.currentTimeMillis() - pendingTouches.size();
+        for (Map.Entry<String, CachedIcon> entry : index.entrySet()) {
+            if (pendingTouches.contains(entry.getKey())) {
+                //noinspection ResultOfMethodCallIgnored
+                entry.getValue().file.setLastModified(time++);
+            }
+        }
+        pendingTouches.clear();
+    }
+
+    /**
+     * Removes every icon of a package (for all users, versions and options)
+     */
+    synchronized void invalidatePackage(String packageName) {
+        if (!indexLoaded) {
+            return;
+        }
+
+        String prefix = packageName + SEPARATOR;
+        Iterator<Map.Entry<String, CachedIcon>> iterator = index.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, CachedIcon> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                deleteFile(entry.getValue());
+                iterator.remove();
+                pendingTouches.remove(entry.getKey());
+            }
+        }
+    }
+
+    static byte[] readBytes(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = inputStream.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of file " + file.getName());
+                }
+                offset += read;
+            }
+        } finally {
+            closeQuietly(inputStream);
+        }
+        return bytes;
+    }
+
+    private void ensureIndexLoaded() {
+        if (indexLoaded) {
+            return;
+        }
+        indexLoaded = true;
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        // Oldest first, to restore the LRU order
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                long diff = file1.lastModified() - file2.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+
+        for (File file : files) {
+            String name = file.getName();
+            int extensionStart = name.lastIndexOf('.');
+            int sizeStart = name.lastIndexOf(SEPARATOR);
+
+            CachedIcon icon = null;
+            if (extensionStart > sizeStart && sizeStart > 0) {
+                String[] dimensions = name.substring(sizeStart + 1, extensionStart).split("x");
+                if (dimensions.length == 2) {
+                    try {
+                        icon = new CachedIcon(file, Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+                    } catch (NumberFormatException ignored) {
+                        // Handled below
+                    }
+                }
+            }
+
+            if (icon == null) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            } else {
+                index.put(name.substring(0, sizeStart), icon);
+                sizeBytes += file.length();
+            }
+        }
+
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        if (sizeBytes <= maxSizeBytes) {
+            return;
+        }
+
+        List<String> evictedKeys = new ArrayList<>();
+        long remainingSize = sizeBytes;
+        for (Map.Entry<String, CachedIcon> entry : index.entrySet()) {
+            if (remainingSize <= maxSizeBytes) {
+                break;
+            }
+            remainingSize -= entry.getValue().file.length();
+            evictedKeys.add(entry.getKey());
+        }
+
+        for (String key : evictedKeys) {
+            removeFromIndex(key);
+        }
+        persist();
+    }
+
+    private void removeFromIndex(String key) {
+        CachedIcon icon = index.remove(key);
+        pendingTouches.remove(key);
+        if (icon != null) {
+            deleteFile(icon);
+        }
+    }
+
+    private void deleteFile(CachedIcon icon) {
+        sizeBytes -= icon.file.length();
+        //noinspection ResultOfMethodCallIgnored
+        icon.file.delete();
+    }
+
+    private static String getExtension(IconOptions.Format format) {
+        return format == IconOptions.Format.PNG ? "png" : "webp";
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // Nothing to do
+            }
+        }
+    }
+
+    static class CachedIcon {
+
+        final File file;
+        final int width;
+        final int height;
+
+        CachedIcon(File file, int width, int height) {
+            this.file = file;
+            this.width = width;
+            this.height = height;
+        }
+
+    }
+
+}
@@ -0,0 +1,71 @@
+package fr.g123k.deviceapps;
+
+import android.util.LruCache;
+
+import fr.g123k.deviceapps.utils.EncodedIcon;
+import fr.g123k.deviceapps.utils.IconOptions;
+
+/**
+ * Encoded icons of the catalog entries (one per icon options), bounded in bytes: the least
+ * recently used icons are evicted first, they are then read from the {@link IconDiskCache}.
+ * Entries are replaced when their package changes, so an icon is never stale: the icons of a
+ * replaced entry are evicted like unused ones.
+ */
+class IconMemoryCache {
+
+    private final LruCache<Key, EncodedIcon> icons;
+
+    IconMemoryCache(int maxSize) {
+        this.icons = new LruCache<Key, EncodedIcon>(maxSize) {
+            @Override
+            protected int sizeOf(Key key, EncodedIcon icon) {
+                // Interned arrays are shared between entries: the size is an upper bound
+                return icon.bytes.length;
+            }
+        };
+    }
+
+    EncodedIcon get(AppsCatalog.Entry entry, IconOptions iconOptions) {
+        return icons.get(new Key(entry, iconOptions.getKey()));
+    }
+
+    void put(AppsCatalog.Entry entry, IconOptions iconOptions, EncodedIcon icon) {
+        icons.put(new Key(entry, iconOptions.getKey()), icon);
+    }
+
+    void clear() {
+        icons.evictAll();
+    }
+
+    private static class Key {
+
+        private final AppsCatalog.Entry entry;
+        private final String iconKey;
+
+        Key(AppsCatalog.Entry entry, String iconKey) {
+            this.entry = entry;
+            this.iconKey = iconKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            // Entries are compared by identity
+            Key key = (Key) o;
+            return entry == key.entry && iconKey.equals(key.iconKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(entry) + iconKey.hashCode();
+        }
+
+    }
+
+}
@@ -0,0 +1,247 @@
+package fr.g123k.deviceapps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fr.g123k.deviceapps.utils.AppDataConstants;
+import fr.g123k.deviceapps.utils.IconOptions;
+
+/**
+ * Single-flight coalescing of list requests: a request equivalent to (or cheaper than) a request
+ * being computed waits for its result, instead of being queued and computed again.
+ * A cheaper request (eg: without icons, system apps or some fields) gets a filtered copy of the
+ * richer result.
+ */
+class InFlightRequests {
+
+    private static final String[] ICON_FIELDS = {
+            AppDataConstants.APP_ICON,
+            AppDataConstants.APP_ICON_PATH,
+            AppDataConstants.APP_ICON_FORMAT,
+            AppDataConstants.APP_ICON_WIDTH,
+            AppDataConstants.APP_ICON_HEIGHT
+    };
+
+    private final Map<Request, List<Waiter>> flights;
+
+    InFlightRequests() {
+        this.flights = new HashMap<>();
+    }
+
+    /**
+     * Returns true if the caller has to compute the {@code request}, then to call
+     * {@link #complete(Request, List)} (or {@link #fail(Request, RuntimeException)}). Otherwise,
+     * the {@code callback} will be called with the result of an equivalent (or richer) request
+     * already in flight
+     */
+    synchronized boolean join(Request request, Callback callback) {
+        Request flight = flights.containsKey(request) ? request : null;
+        if (flight == null) {
+            for (Request candidate : flights.keySet()) {
+                if (request.canBeServedBy(candidate)) {
+                    flight = candidate;
+                    break;
+                }
+            }
+        }
+
+        if (flight != null) {
+            flights.get(flight).add(new Waiter(request, callback));
+            return false;
+        }
+
+        List<Waiter> waiters = new ArrayList<>(1);
+        waiters.add(new Waiter(request, callback));
+        flights.put(request, waiters);
+        return true;
+    }
+
+    /**
+     * Sends the {@code apps} to all the callers of the {@code request}. The caller computing the
+     * request must always call this method, or {@link #fail(Request, RuntimeException)}
+     */
+    void complete(Request request, List<Map<String, Object>> apps) {
+        List<Waiter> waiters = remove(request);
+        if (waiters == null) {
+            return;
+        }
+
+        for (Waiter waiter : waiters) {
+            waiter.callback.onInstalledAppsListAvailable(waiter.request.extractFrom(request, apps));
+        }
+    }
+
+    /**
+     * Sends the {@code error} to all the callers of the {@code request} (an empty list couldn't
+     * be told apart from a device without apps)
+     */
+    void fail(Request request, RuntimeException error) {
+        List<Waiter> waiters = remove(request);
+        if (waiters == null) {
+            return;
+        }
+
+        for (Waiter waiter : waiters) {
+            waiter.callback.onInstalledAppsListFailed(error);
+        }
+    }
+
+    private synchronized List<Waiter> remove(Request request) {
+        return flights.remove(request);
+    }
+
+    interface Callback extends InstalledAppsCallback {
+
+        void onInstalledAppsListFailed(RuntimeException error);
+
+    }
+
+    static class Request {
+
+        private final String method;
+        private final boolean includeSystemApps;
+        private final String iconKey;
+        private final boolean onlyAppsWithLaunchIntent;
+        private final Set<String> fields;
+
+        /**
+         * The {@code method} identifies the profile
+         */
+        Request(String method,
+                boolean includeSystemApps,
+                IconOptions iconOptions,
+                boolean onlyAppsWithLaunchIntent,
+                Set<String> fields) {
+            this.method = method;
+            this.includeSystemApps = includeSystemApps;
+            this.iconKey = iconOptions != null ? iconOptions.getKey() + (iconOptions.asFile ? "_file" : "") : null;
+            this.onlyAppsWithLaunchIntent = onlyAppsWithLaunchIntent;
+            this.fields = fields;
+        }
+
+        boolean canBeServedBy(Request other) {
+            if (!method.equals(other.method) || onlyAppsWithLaunchIntent != other.onlyAppsWithLaunchIntent) {
+                return false;
+            }
+
+            if (iconKey != null && !iconKey.equals(other.iconKey)) {
+                return false;
+            }
+
+            if (includeSystemApps && !other.includeSystemApps) {
+                return false;
+            }
+
+            // System apps can only be filtered out if the flag has been sent
+            if (!includeSystemApps && other.includeSystemApps && !other.hasField(AppDataConstants.SYSTEM_APP)) {
+                return false;
+            }
+
+            if (fields == null) {
+                return other.fields == null;
+            }
+            return other.fields == null || other.fields.containsAll(fields);
+        }
+
+        private boolean hasField(String field) {
+            return fields == null || fields.contains(field);
+        }
+
+        /**
+         * Filters the {@code apps} computed for the {@code other} request
+         */
+        List<Map<String, Object>> extractFrom(Request other, List<Map<String, Object>> apps) {
+            if (equals(other)) {
+                return apps;
+            }
+
+            boolean filterSystemApps = !includeSystemApps && other.includeSystemApps;
+            boolean removeIcons = iconKey == null && other.iconKey != null;
+
+            List<Map<String, Object>> extractedApps = new ArrayList<>(apps.size());
+            for (Map<String, Object> app : apps) {
+                if (filterSystemApps && Boolean.TRUE.equals(app.get(AppDataConstants.SYSTEM_APP))) {
+                    continue;
+                }
+
+                if (fields == null && !removeIcons) {
+                    // Maps are never modified once computed
+                    extractedApps.add(app);
+                    continue;
+                }
+
+                Map<String, Object> extractedApp;
+                if (fields == null) {
+                    extractedApp = new HashMap<>(app);
+                } else {
+                    extractedApp = new HashMap<>(fields.size() + 5);
+                    extractedApp.put(AppDataConstants.PACKAGE_NAME, app.get(AppDataConstants.PACKAGE_NAME));
+                    for (String field : fields) {
+                        if (app.containsKey(field)) {
+                            extractedApp.put(field, app.get(field));
+                        }
+                    }
+                    if (!removeIcons) {
+                        for (String field : ICON_FIELDS) {
+                            if (app.containsKey(field)) {
+                                extractedApp.put(field, app.get(field));
+                            }
+                        }
+                    }
+                }
+
+                if (removeIcons) {
+                    for (String field : ICON_FIELDS) {
+                        extractedApp.remove(field);
+                    }
+                }
+                extractedApps.add(extractedApp);
+            }
+            return extractedApps;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Request)) {
+                return false;
+            }
+
+            Request request = (Request) o;
+            return includeSystemApps == request.includeSystemApps
+                    && onlyAppsWithLaunchIntent == request.onlyAppsWithLaunchIntent
+                    && method.equals(request.method)
+                    && (iconKey != null ? iconKey.equals(request.iconKey) : request.iconKey == null)
+                    && (fields != null ? fields.equals(request.fields) : request.fields == null);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = method.hashCode();
+            result = 31 * result + (includeSystemApps ? 1 : 0);
+            result = 31 * result + (iconKey != null ? iconKey.hashCode() : 0);
+            result = 31 * result + (onlyAppsWithLaunchIntent ? 1 : 0);
+            result = 31 * result + (fields != null ? fields.hashCode() : 0);
+            return result;
+        }
+
+    }
+
+    private static class Waiter {
+
+        final Request request;
+        final Callback callback;
+
+        Waiter(Request request, Callback callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+
+    }
+
+}
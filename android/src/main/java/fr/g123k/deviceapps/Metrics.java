@@ -0,0 +1,361 @@
+package fr.g123k.deviceapps;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import fr.g123k.deviceapps.utils.BitmapUtils;
+import fr.g123k.deviceapps.utils.DrawableUtils;
+import io.flutter.plugin.common.MethodChannel.Result;
+
+/**
+ * Latency histograms (per method call and per stage), binder calls and counters.
+ * Recording only costs a few atomic operations. Sections can also be sent to
+ * {@link android.os.Trace} (disabled by default).
+ */
+class Metrics {
+
+    static final String BINDER_GET_ACTIVITY_LIST = "launcher_apps.get_activity_list";
+    static final String BINDER_GET_PROFILES = "launcher_apps.get_profiles";
+    static final String BINDER_START_MAIN_ACTIVITY = "launcher_apps.start_main_activity";
+    static final String BINDER_GET_CHANGED_PACKAGES = "package_manager.get_changed_packages";
+    static final String BINDER_GET_PACKAGE_INFO = "package_manager.get_package_info";
+    static final String BINDER_GET_INSTALLED_PACKAGES = "package_manager.get_installed_packages";
+    static final String BINDER_GET_USER_SERIAL = "user_manager.get_serial_number_for_user";
+    static final String BINDER_QUERY_USAGE_STATS = "usage_stats_manager.query_and_aggregate_usage_stats";
+
+    static final String STAGE_APP_DATA = "app_data";
+    static final String STAGE_CATALOG_LOAD = "catalog_load";
+    static final String STAGE_COMPACT_ENCODE = "compact_encode";
+    static final String STAGE_ICON_RENDER = "icon_render";
+    static final String STAGE_PREWARM = "prewarm";
+
+    static final String COUNTER_APPS = "apps";
+    static final String COUNTER_ICONS_RENDERED = "icons_rendered";
+    static final String COUNTER_ICONS_MEMORY_HITS = "icons_memory_cache_hits";
+    static final String COUNTER_ICONS_DISK_HITS = "icons_disk_cache_hits";
+    static final String COUNTER_ICONS_DEDUPLICATED = "icons_deduplicated";
+    static final String COUNTER_COALESCED_REQUESTS = "coalesced_requests";
+
+    private static final String TRACE_PREFIX = "DeviceApps.";
+
+    // Upper bounds (inclusive) of the buckets, the last bucket being unbounded
+    private static final long[] BUCKET_BOUNDS_MICROS = {
+            100, 500, 1000, 5000, 10000, 50000, 100000, 500000, 1000000, 5000000
+    };
+
+    private final ConcurrentHashMap<String, Histogram> methods;
+    private final ConcurrentHashMap<String, Histogram> stages;
+    private final ConcurrentHashMap<String, Histogram> mainThread;
+    private final ConcurrentHashMap<String, AtomicLong> binderCalls;
+    private final ConcurrentHashMap<String, AtomicLong> counters;
+    private final ConcurrentHashMap<String, AtomicLong> payloadBytes;
+    private final AtomicInteger traceCookies;
+
+    private volatile boolean tracingEnabled;
+
+    Metrics() {
+        this.methods = new ConcurrentHashMap<>();
+        this.stages = new ConcurrentHashMap<>();
+        this.mainThread = new ConcurrentHashMap<>();
+        this.binderCalls = new ConcurrentHashMap<>();
+        this.counters = new ConcurrentHashMap<>();
+        this.payloadBytes = new ConcurrentHashMap<>();
+        this.traceCookies = new AtomicInteger();
+    }
+
+    void setTracingEnabled(boolean enabled) {
+        tracingEnabled = enabled;
+    }
+
+    /**
+     * Records the latency of the method call (until its result is sent) and the approximate
+     * size of the result (see {@link MeasuredResult#recordPayload(Object)})
+     */
+    MeasuredResult measure(String method, Result result) {
+        return new MeasuredResult(method, result);
+    }
+
+    /**
+     * Time spent on the main thread to handle a method call (the result being sent later)
+     */
+    void recordMainThread(String method, long durationNanos) {
+        getHistogram(mainThread, method).record(durationNanos, false);
+    }
+
+    /**
+     * Must be ended on the same thread (see {@link Span#end()})
+     */
+    Span startStage(String stage) {
+        boolean traced = tracingEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+        if (traced) {
+            Trace.beginSection(TRACE_PREFIX + stage);
+        }
+        return new Span(getHistogram(stages, stage), traced);
+    }
+
+    void countBinderCall(String call) {
+        increment(binderCalls, call, 1);
+    }
+
+    void count(String counter, long value) {
+        increment(counters, counter, value);
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>(8);
+
+        List<Double> bounds = new ArrayList<>(BUCKET_BOUNDS_MICROS.length);
+        for (long bound : BUCKET_BOUNDS_MICROS) {
+            bounds.add(bound / 1000.0);
+        }
+        map.put("bucket_bounds_ms", bounds);
+        map.put("methods", histogramsToMap(methods));
+        map.put("stages", histogramsToMap(stages));
+        map.put("main_thread", histogramsToMap(mainThread));
+        map.put("binder_calls", countersToMap(binderCalls));
+        map.put("payload_bytes", countersToMap(payloadBytes));
+
+        Map<String, Long> allCounters = countersToMap(counters);
+        allCounters.put("bitmaps_allocated", DrawableUtils.getAllocatedBitmapsCount());
+        allCounters.put("bitmaps_reused", DrawableUtils.getReusedBitmapsCount());
+        allCounters.put("bitmaps_unchanged", DrawableUtils.getUnchangedBitmapsCount());
+        allCounters.put("buffers_allocated", BitmapUtils.getAllocatedBuffersCount());
+        map.put("counters", allCounters);
+
+        return map;
+    }
+
+    void reset() {
+        methods.clear();
+        stages.clear();
+        mainThread.clear();
+        binderCalls.clear();
+        counters.clear();
+        payloadBytes.clear();
+        DrawableUtils.resetCounters();
+        BitmapUtils.resetCounters();
+    }
+
+    private int beginAsyncTrace(String method) {
+        if (!tracingEnabled || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return -1;
+        }
+
+        int cookie = traceCookies.incrementAndGet();
+        Trace.beginAsyncSection(TRACE_PREFIX + method, cookie);
+        return cookie;
+    }
+
+    private void endAsyncTrace(String method, int cookie) {
+        if (cookie != -1) {
+            Trace.endAsyncSection(TRACE_PREFIX + method, cookie);
+        }
+    }
+
+    /**
+     * Approximate size of {@code value} once encoded by the standard message codec
+     */
+    static long estimateSize(Object value) {
+        if (value == null || value instanceof Boolean) {
+            return 1;
+        } else if (value instanceof Integer) {
+            return 5;
+        } else if (value instanceof Number) {
+            return 9;
+        } else if (value instanceof String) {
+            return 5 + ((String) value).length();
+        } else if (value instanceof byte[]) {
+            return 5 + ((byte[]) value).length;
+        } else if (value instanceof ByteBuffer) {
+            // Already encoded (eg: by the compact codec), sent up to its position
+            return ((ByteBuffer) value).position();
+        } else if (value instanceof List) {
+            long size = 5;
+            for (Object item : (List<?>) value) {
+                size += estimateSize(item);
+            }
+            return size;
+        } else if (value instanceof Map) {
+            long size = 5;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+            }
+            return size;
+        }
+        return 9;
+    }
+
+    private static Histogram getHistogram(ConcurrentHashMap<String, Histogram> histograms, String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = histograms.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    private static void increment(ConcurrentHashMap<String, AtomicLong> counters, String name, long value) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(value);
+    }
+
+    private static Map<String, Object> histogramsToMap(Map<String, Histogram> histograms) {
+        Map<String, Object> map = new HashMap<>(histograms.size());
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return map;
+    }
+
+    private static Map<String, Long> countersToMap(Map<String, AtomicLong> counters) {
+        Map<String, Long> map = new HashMap<>(counters.size());
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().get());
+        }
+        return map;
+    }
+
+    class MeasuredResult implements Result {
+
+        private final String method;
+        private final Result result;
+        private final long start;
+        private final int cookie;
+        private volatile long payloadSize = -1;
+
+        MeasuredResult(String method, Result result) {
+            this.method = method;
+            this.result = result;
+            this.start = System.nanoTime();
+            this.cookie = beginAsyncTrace(method);
+        }
+
+        /**
+         * Estimates the size of the {@code value} about to be sent, which is O(payload): must be
+         * called in the background, before the result is posted to the main thread
+         */
+        void recordPayload(Object value) {
+            payloadSize = estimateSize(value);
+        }
+
+        @Override
+        public void success(Object value) {
+            end(false);
+
+            long size = payloadSize;
+            if (size < 0 && !(value instanceof List) && !(value instanceof Map)) {
+                // Replied on the main thread: only scalar values are estimated there
+                size = estimateSize(value);
+            }
+            if (size >= 0) {
+                increment(payloadBytes, method, size);
+            }
+            result.success(value);
+        }
+
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+            end(true);
+            result.error(errorCode, errorMessage, errorDetails);
+        }
+
+        @Override
+        public void notImplemented() {
+            end(true);
+            result.notImplemented();
+        }
+
+        private void end(boolean error) {
+            getHistogram(methods, method).record(System.nanoTime() - start, error);
+            endAsyncTrace(method, cookie);
+        }
+
+    }
+
+    static class Span {
+
+        private final Histogram histogram;
+        private final boolean traced;
+        private final long start;
+
+        Span(Histogram histogram, boolean traced) {
+            this.histogram = histogram;
+            this.traced = traced;
+            this.start = System.nanoTime();
+        }
+
+        void end() {
+            histogram.record(System.nanoTime() - start, false);
+            if (traced) {
+                Trace.endSection();
+            }
+        }
+
+    }
+
+    private static class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MICROS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long durationNanos, boolean error) {
+            long micros = durationNanos / 1000;
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[bucket]) {
+                bucket++;
+            }
+
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(durationNanos);
+            if (error) {
+                errors.incrementAndGet();
+            }
+
+            long max = maxNanos.get();
+            while (durationNanos > max && !maxNanos.compareAndSet(max, durationNanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>(5);
+            map.put("count", count.get());
+            map.put("errors", errors.get());
+            map.put("total_ms", totalNanos.get() / 1000000.0);
+            map.put("max_ms", maxNanos.get() / 1000000.0);
+
+            List<Long> bucketCounts = new ArrayList<>(buckets.length());
+            for (int i = 0; i < buckets.length(); i++) {
+                bucketCounts.add(buckets.get(i));
+            }
+            map.put("buckets", bucketCounts);
+            return map;
+        }
+
+    }
+
+}
@@ -0,0 +1,80 @@
+package fr.g123k.deviceapps;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Versions and install times of the packages of the main profile.
+ * All packages are loaded with a single {@link PackageManager#getInstalledPackages(int)} call,
+ * then only the packages invalidated by broadcasts are queried again.
+ * Other profiles can't be queried with the {@link PackageManager} of the app.
+ */
+class PackageInfoCache {
+
+    private final Context context;
+    private final Metrics metrics;
+    private final Set<String> dirtyPackages;
+    private Map<String, PackageInfo> packages;
+
+    PackageInfoCache(Context context, Metrics metrics) {
+        this.context = context;
+        this.metrics = metrics;
+        this.dirtyPackages = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    /**
+     * Returns null if the package is not installed
+     */
+    synchronized PackageInfo get(String packageName) {
+        PackageManager packageManager = context.getPackageManager();
+
+        if (packages == null) {
+            // Events received before the first load are meaningless
+            dirtyPackages.clear();
+
+            metrics.countBinderCall(Metrics.BINDER_GET_INSTALLED_PACKAGES);
+            List<PackageInfo> installedPackages = packageManager.getInstalledPackages(0);
+            packages = new HashMap<>(installedPackages.size());
+            for (PackageInfo packageInfo : installedPackages) {
+                packages.put(packageInfo.packageName, packageInfo);
+            }
+        } else if (!dirtyPackages.isEmpty()) {
+            Iterator<String> iterator = dirtyPackages.iterator();
+            while (iterator.hasNext()) {
+                String dirtyPackage = iterator.next();
+                iterator.remove();
+                refreshPackage(packageManager, dirtyPackage);
+            }
+        }
+
+        return packages.get(packageName);
+    }
+
+    void invalidatePackage(String packageName) {
+        dirtyPackages.add(packageName);
+    }
+
+    synchronized void clear() {
+        packages = null;
+        dirtyPackages.clear();
+    }
+
+    private void refreshPackage(PackageManager packageManager, String packageName) {
+        try {
+            metrics.countBinderCall(Metrics.BINDER_GET_PACKAGE_INFO);
+            packages.put(packageName, packageManager.getPackageInfo(packageName, 0));
+        } catch (PackageManager.NameNotFoundException e) {
+            packages.remove(packageName);
+        }
+    }
+
+}
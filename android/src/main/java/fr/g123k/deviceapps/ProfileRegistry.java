@@ -0,0 +1,175 @@
+package fr.g123k.deviceapps;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.LauncherApps;
+import android.os.Build;
+import android.os.Process;
+import android.os.UserHandle;
+import android.os.UserManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Profiles of the current user (main profile first), only queried again when a managed profile
+ * is added or removed. Profiles paused (quiet mode), resumed or unlocked are also reported, as
+ * their apps change without any package event.
+ * Profiles are identified by their serial number, which is stable (even across reboots), unlike
+ * their position in the list.
+ */
+class ProfileRegistry {
+
+    private final Context context;
+    private final Metrics metrics;
+    private final Callback callback;
+    private final Map<UserHandle, Long> serials;
+
+    private volatile List<UserHandle> profiles;
+    private BroadcastReceiver profilesBroadcastReceiver;
+
+    ProfileRegistry(Context context, Metrics metrics, Callback callback) {
+        this.context = context;
+        this.metrics = metrics;
+        this.callback = callback;
+        this.serials = new ConcurrentHashMap<>();
+    }
+
+    void register() {
+        if (profilesBroadcastReceiver != null) {
+            return;
+        }
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_MANAGED_PROFILE_ADDED);
+        filter.addAction(Intent.ACTION_MANAGED_PROFILE_REMOVED);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            filter.addAction(Intent.ACTION_MANAGED_PROFILE_AVAILABLE);
+            filter.addAction(Intent.ACTION_MANAGED_PROFILE_UNAVAILABLE);
+            filter.addAction(Intent.ACTION_MANAGED_PROFILE_UNLOCKED);
+        }
+
+        profilesBroadcastReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (Intent.ACTION_MANAGED_PROFILE_ADDED.equals(intent.getAction())
+                        || Intent.ACTION_MANAGED_PROFILE_REMOVED.equals(intent.getAction())) {
+                    // Queried again by the next call, or by the callback in the background
+                    profiles = null;
+                    callback.onProfilesChanged();
+                    return;
+                }
+
+                UserHandle profile = intent.getParcelableExtra(Intent.EXTRA_USER);
+                if (profile != null) {
+                    callback.onProfileAvailabilityChanged(profile);
+                }
+            }
+        };
+
+        context.registerReceiver(profilesBroadcastReceiver, filter);
+    }
+
+    List<UserHandle> getProfiles() {
+        List<UserHandle> currentProfiles = profiles;
+        if (currentProfiles == null) {
+            currentProfiles = loadProfiles();
+            profiles = currentProfiles;
+        }
+        return currentProfiles;
+    }
+
+    /**
+     * Queries the profiles again, and forgets the serial numbers of the removed ones.
+     * Makes a binder call: must not be called on the main thread
+     */
+    List<UserHandle> reload() {
+        List<UserHandle> currentProfiles = loadProfiles();
+        profiles = currentProfiles;
+        serials.keySet().retainAll(currentProfiles);
+        return currentProfiles;
+    }
+
+    UserHandle getMainProfile() {
+        List<UserHandle> currentProfiles = getProfiles();
+        return currentProfiles.isEmpty() ? null : currentProfiles.get(0);
+    }
+
+    /**
+     * The first profile other than the main one
+     */
+    UserHandle getWorkProfile() {
+        List<UserHandle> currentProfiles = getProfiles();
+        return currentProfiles.size() > 1 ? currentProfiles.get(1) : null;
+    }
+
+    boolean isMainProfile(UserHandle profile) {
+        return profile.equals(getMainProfile());
+    }
+
+    long getId(UserHandle profile) {
+        Long serial = serials.get(profile);
+        if (serial == null) {
+            UserManager userManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
+            metrics.countBinderCall(Metrics.BINDER_GET_USER_SERIAL);
+            serial = userManager.getSerialNumberForUser(profile);
+            serials.put(profile, serial);
+        }
+        return serial;
+    }
+
+    /**
+     * Returns null if there is no profile with this {@code id}
+     */
+    UserHandle getProfile(long id) {
+        for (UserHandle profile : getProfiles()) {
+            if (getId(profile) == id) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    private List<UserHandle> loadProfiles() {
+        LauncherApps launcherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
+        metrics.countBinderCall(Metrics.BINDER_GET_PROFILES);
+        List<UserHandle> loadedProfiles = new ArrayList<>(launcherApps.getProfiles());
+
+        // The profile of the app is the main one
+        UserHandle myProfile = Process.myUserHandle();
+        if (loadedProfiles.remove(myProfile)) {
+            loadedProfiles.add(0, myProfile);
+        }
+
+        return Collections.unmodifiableList(loadedProfiles);
+    }
+
+    void unregister() {
+        if (profilesBroadcastReceiver != null) {
+            context.unregisterReceiver(profilesBroadcastReceiver);
+            profilesBroadcastReceiver = null;
+        }
+        profiles = null;
+    }
+
+    interface Callback {
+
+        /**
+         * A profile has been added or removed: called on the main thread, the profiles have to be
+         * reloaded in the background (see {@link #reload()})
+         */
+        void onProfilesChanged();
+
+        /**
+         * The {@code profile} has been paused, resumed or unlocked: all its apps may have changed
+         */
+        void onProfileAvailabilityChanged(UserHandle profile);
+
+    }
+
+}
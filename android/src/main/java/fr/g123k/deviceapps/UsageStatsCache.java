@@ -0,0 +1,186 @@
+package fr.g123k.deviceapps;
+
+import android.app.usage.UsageStats;
+import android.app.usage.UsageStatsManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Time spent in the foreground by the packages of the main profile, over a window ending now.
+ * Usage is aggregated with a single {@link UsageStatsManager#queryAndAggregateUsageStats} call,
+ * then kept for a few seconds (per window): consecutive calls (eg: while a launcher is displayed)
+ * don't need fresher data.
+ * Requires the PACKAGE_USAGE_STATS permission (granted by the user in the settings), usage is
+ * empty otherwise.
+ */
+class UsageStatsCache {
+
+    private static final String LOG_TAG = "DEVICE_APPS";
+    private static final long TTL_MS = 30 * 1000;
+
+    private final Context context;
+    private final Metrics metrics;
+    private final Map<Long, CachedUsage> usages;
+
+    UsageStatsCache(Context context, Metrics metrics) {
+        this.context = context;
+        this.metrics = metrics;
+        this.usages = new HashMap<>();
+    }
+
+    /**
+     * Usage indexed by package name (unused packages are missing)
+     */
+    synchronized Map<String, Usage> get(long windowMs) {
+        long now = SystemClock.elapsedRealtime();
+
+        // Expired windows are dropped, so that only a few windows are kept
+        Iterator<CachedUsage> iterator = usages.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().time >= TTL_MS) {
+                iterator.remove();
+            }
+        }
+
+        CachedUsage cachedUsage = usages.get(windowMs);
+        if (cachedUsage == null) {
+            cachedUsage = new CachedUsage(query(windowMs), now);
+            usages.put(windowMs, cachedUsage);
+        }
+        return cachedUsage.usage;
+    }
+
+    synchronized void clear() {
+        usages.clear();
+    }
+
+    private Map<String, Usage> query(long windowMs) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP_MR1) {
+            return Collections.emptyMap();
+        }
+
+        UsageStatsManager usageStatsManager = (UsageStatsManager) context.getSystemService(Context.USAGE_STATS_SERVICE);
+        if (usageStatsManager == null) {
+            return Collections.emptyMap();
+        }
+
+        long end = System.currentTimeMillis();
+        Map<String, UsageStats> stats;
+        try {
+            metrics.countBinderCall(Metrics.BINDER_QUERY_USAGE_STATS);
+            stats = usageStatsManager.queryAndAggregateUsageStats(end - windowMs, end);
+        } catch (SecurityException e) {
+            Log.w(LOG_TAG, "Unable to read the usage of apps", e);
+            return Collections.emptyMap();
+        }
+
+        Map<String, Usage> usage = new HashMap<>(stats.size());
+        for (Map.Entry<String, UsageStats> packageStats : stats.entrySet()) {
+            long totalTimeInForeground = packageStats.getValue().getTotalTimeInForeground();
+            if (totalTimeInForeground > 0) {
+                usage.put(packageStats.getKey(), new Usage(totalTimeInForeground, packageStats.getValue().getLastTimeUsed()));
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * The {@code count} most used entries (one per package), the most used first.
+     * Selected with a heap of {@code count} entries, instead of sorting all the entries
+     */
+    static List<AppsCatalog.Entry> selectMostUsed(List<AppsCatalog.Entry> entries, Map<String, Usage> usage, int count) {
+        if (count <= 0 || usage.isEmpty()) {
+            return new ArrayList<>(0);
+        }
+
+        Comparator<UsedEntry> comparator = new Comparator<UsedEntry>() {
+            @Override
+            public int compare(UsedEntry entry1, UsedEntry entry2) {
+                int result = compareLongs(entry1.usage.totalTimeInForeground, entry2.usage.totalTimeInForeground);
+                return result != 0 ? result : compareLongs(entry1.usage.lastTimeUsed, entry2.usage.lastTimeUsed);
+            }
+        };
+
+        // The least used entry of the selection is the head
+        PriorityQueue<UsedEntry> selection = new PriorityQueue<>(Math.min(count, 256), comparator);
+        Set<String> packageNames = new HashSet<>();
+        for (AppsCatalog.Entry entry : entries) {
+            String packageName = entry.activityInfo.getApplicationInfo().packageName;
+            Usage packageUsage = usage.get(packageName);
+            if (packageUsage == null || !packageNames.add(packageName)) {
+                continue;
+            }
+
+            UsedEntry usedEntry = new UsedEntry(entry, packageUsage);
+            if (selection.size() < count) {
+                selection.add(usedEntry);
+            } else if (comparator.compare(usedEntry, selection.peek()) > 0) {
+                selection.poll();
+                selection.add(usedEntry);
+            }
+        }
+
+        List<UsedEntry> usedEntries = new ArrayList<>(selection);
+        Collections.sort(usedEntries, Collections.reverseOrder(comparator));
+
+        List<AppsCatalog.Entry> mostUsed = new ArrayList<>(usedEntries.size());
+        for (UsedEntry usedEntry : usedEntries) {
+            mostUsed.add(usedEntry.entry);
+        }
+        return mostUsed;
+    }
+
+    private static int compareLongs(long value1, long value2) {
+        return value1 < value2 ? -1 : (value1 == value2 ? 0 : 1);
+    }
+
+    static class Usage {
+
+        final long totalTimeInForeground;
+        final long lastTimeUsed;
+
+        Usage(long totalTimeInForeground, long lastTimeUsed) {
+            this.totalTimeInForeground = totalTimeInForeground;
+            this.lastTimeUsed = lastTimeUsed;
+        }
+
+    }
+
+    private static class CachedUsage {
+
+        final Map<String, Usage> usage;
+        final long time;
+
+        CachedUsage(Map<String, Usage> usage, long time) {
+            this.usage = usage;
+            this.time = time;
+        }
+
+    }
+
+    private static class UsedEntry {
+
+        final AppsCatalog.Entry entry;
+        final Usage usage;
+
+        UsedEntry(AppsCatalog.Entry entry, Usage usage) {
+            this.entry = entry;
+            this.usage = usage;
+        }
+
+    }
+
+}
@@ -0,0 +1,138 @@
+package fr.g123k.deviceapps.listener;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.g123k.deviceapps.utils.AppDataEventConstants;
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Collects package events during a window, and collapses the events of a same package into a
+ * single one (eg: installed + updated = installed).
+ * The data of the events is the one already computed for the other sinks: the latest data of a
+ * package is kept.
+ * Must only be used from the main thread.
+ */
+class AppsChangesBatcher {
+
+    // Enabled or disabled: resolved when the batch is sent
+    static final String EVENT_TYPE_CHANGED = "changed";
+
+    private final EventChannel.EventSink sink;
+    private final long windowMs;
+    private final Handler handler;
+
+    private LinkedHashMap<String, PendingEvent> pendingEvents;
+    private boolean flushScheduled;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    AppsChangesBatcher(EventChannel.EventSink sink, long windowMs, Handler handler) {
+        this.sink = sink;
+        this.windowMs = windowMs;
+        this.handler = handler;
+        this.pendingEvents = new LinkedHashMap<>();
+    }
+
+    void onEvent(String packageName, String eventType, Map<String, Object> eventData) {
+        PendingEvent previousEvent = pendingEvents.get(packageName);
+        String collapsedEventType = collapse(previousEvent != null ? previousEvent.eventType : null, eventType);
+
+        if (collapsedEventType == null) {
+            pendingEvents.remove(packageName);
+        } else {
+            pendingEvents.put(packageName, new PendingEvent(collapsedEventType, eventType, eventData));
+        }
+
+        // The window starts with the first event of the batch
+        if (!flushScheduled && !pendingEvents.isEmpty()) {
+            handler.postDelayed(flushRunnable, windowMs);
+            flushScheduled = true;
+        }
+    }
+
+    /**
+     * Returns the resulting event, or null if both events cancel each other
+     */
+    static String collapse(String previousEventType, String eventType) {
+        if (previousEventType == null) {
+            return eventType;
+        }
+
+        switch (eventType) {
+            case AppDataEventConstants.EVENT_TYPE_INSTALLED:
+                // Uninstalled, then installed again
+                return AppDataEventConstants.EVENT_TYPE_UNINSTALLED.equals(previousEventType) ? AppDataEventConstants.EVENT_TYPE_UPDATED : eventType;
+            case AppDataEventConstants.EVENT_TYPE_UPDATED:
+                return AppDataEventConstants.EVENT_TYPE_INSTALLED.equals(previousEventType) ? previousEventType : eventType;
+            case EVENT_TYPE_CHANGED:
+                return AppDataEventConstants.EVENT_TYPE_INSTALLED.equals(previousEventType) || AppDataEventConstants.EVENT_TYPE_UPDATED.equals(previousEventType) ? previousEventType : eventType;
+            case AppDataEventConstants.EVENT_TYPE_UNINSTALLED:
+                // Installed, then uninstalled: nothing happened
+                return AppDataEventConstants.EVENT_TYPE_INSTALLED.equals(previousEventType) ? null : eventType;
+            default:
+                return eventType;
+        }
+    }
+
+    private void flush() {
+        flushScheduled = false;
+
+        if (pendingEvents.isEmpty()) {
+            return;
+        }
+
+        List<Map<String, Object>> events = new ArrayList<>(pendingEvents.size());
+        for (PendingEvent event : pendingEvents.values()) {
+            events.add(event.getData());
+        }
+
+        pendingEvents = new LinkedHashMap<>();
+        sink.success(events);
+    }
+
+    void cancel() {
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        pendingEvents.clear();
+    }
+
+    private static class PendingEvent {
+
+        private final String eventType;
+        private final String lastEventType;
+        private final Map<String, Object> lastEventData;
+
+        PendingEvent(String eventType, String lastEventType, Map<String, Object> lastEventData) {
+            this.eventType = eventType;
+            this.lastEventType = lastEventType;
+            this.lastEventData = lastEventData;
+        }
+
+        /**
+         * The data is shared with the other sinks, so it's copied when the event type differs
+         * (a {@code "changed"} event is never collapsed into another one)
+         */
+        Map<String, Object> getData() {
+            if (eventType.equals(lastEventType)) {
+                return lastEventData;
+            }
+
+            Map<String, Object> data = new HashMap<>(lastEventData);
+            data.put(AppDataEventConstants.EVENT_TYPE, eventType);
+            return data;
+        }
+
+    }
+
+}
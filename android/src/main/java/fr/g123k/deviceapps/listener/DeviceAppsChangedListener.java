@@ -4,27 +4,45 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Handler;
 
 import androidx.annotation.NonNull;
 
-import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
+import fr.g123k.deviceapps.utils.AppDataEventConstants;
 import io.flutter.plugin.common.EventChannel;
 
 public class DeviceAppsChangedListener {
 
     private final DeviceAppsChangedListenerInterface callback;
+    private final Handler mainHandler;
     private final Set<EventChannel.EventSink> sinks;
 
     private BroadcastReceiver appsBroadcastReceiver;
+    private boolean registered;
+    private AppsChangesBatcher batcher;
 
-    public DeviceAppsChangedListener(DeviceAppsChangedListenerInterface callback) {
+    /**
+     * {@code mainHandler} must be bound to the main looper
+     */
+    public DeviceAppsChangedListener(DeviceAppsChangedListenerInterface callback, Handler mainHandler) {
         this.callback = callback;
-        this.sinks = new HashSet<>(1);
+        this.mainHandler = mainHandler;
+        this.sinks = new CopyOnWriteArraySet<>();
     }
 
-    public void register(@NonNull Context context, EventChannel.EventSink events) {
+    /**
+     * Registers the broadcast receiver (only once), even if no sink is attached: the plugin relies
+     * on these events to keep its caches up to date
+     */
+    public void register(@NonNull Context context) {
+        if (registered) {
+            return;
+        }
+
         if (appsBroadcastReceiver == null) {
             createBroadcastReceiver();
         }
@@ -36,9 +54,45 @@ public class DeviceAppsChangedListener {
         intentFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
         intentFilter.addDataScheme("package");
 
+        context.registerReceiver(appsBroadcastReceiver, intentFilter);
+        registered = true;
+    }
+
+    public void addSink(EventChannel.EventSink events) {
         sinks.add(events);
+    }
 
-        context.registerReceiver(appsBroadcastReceiver, intentFilter);
+    public void removeSinks() {
+        sinks.clear();
+    }
+
+    /**
+     * Sends the data of an event (computed once) to all the sinks, including the batched one.
+     * Must be called from the main thread
+     */
+    public void sendEvent(String packageName, String eventType, Map<String, Object> eventData) {
+        for (EventChannel.EventSink sink : sinks) {
+            sink.success(eventData);
+        }
+
+        if (batcher != null) {
+            batcher.onEvent(packageName, eventType, eventData);
+        }
+    }
+
+    /**
+     * Events sent to this sink are collapsed and sent as a list every {@code windowMs}
+     */
+    public void setBatchedSink(EventChannel.EventSink events, long windowMs) {
+        removeBatchedSink();
+        batcher = new AppsChangesBatcher(events, windowMs, mainHandler);
+    }
+
+    public void removeBatchedSink() {
+        if (batcher != null) {
+            batcher.cancel();
+            batcher = null;
+        }
     }
 
     private void createBroadcastReceiver() {
@@ -49,24 +103,27 @@ public class DeviceAppsChangedListener {
 
                 boolean replacing = intent.getExtras().getBoolean(Intent.EXTRA_REPLACING, false);
 
+                // Whatever the event is, cached data for this package is now outdated
+                callback.onPackageStateChanged(packageName);
+
                 switch (intent.getAction()) {
                     case Intent.ACTION_PACKAGE_ADDED:
                         if (!replacing) {
-                            onPackageInstalled(packageName);
+                            onPackageEvent(packageName, AppDataEventConstants.EVENT_TYPE_INSTALLED);
                         }
                         break;
                     case Intent.ACTION_PACKAGE_REPLACED:
-                        onPackageUpdated(packageName);
+                        onPackageEvent(packageName, AppDataEventConstants.EVENT_TYPE_UPDATED);
                         break;
                     case Intent.ACTION_PACKAGE_CHANGED:
                         String[] components = intent.getExtras().getStringArray(Intent.EXTRA_CHANGED_COMPONENT_NAME_LIST);
                         if (components.length == 1 && components[0].equalsIgnoreCase(packageName)) {
-                            onPackageChanged(packageName);
+                            onPackageEvent(packageName, AppsChangesBatcher.EVENT_TYPE_CHANGED);
                         }
                         break;
                     case Intent.ACTION_PACKAGE_REMOVED:
                         if (!replacing) {
-                            onPackageUninstalled(packageName);
+                            onPackageEvent(packageName, AppDataEventConstants.EVENT_TYPE_UNINSTALLED);
                         }
                         break;
                 }
@@ -74,36 +131,21 @@ public class DeviceAppsChangedListener {
         };
     }
 
-    void onPackageInstalled(String packageName) {
-        for (EventChannel.EventSink sink : sinks) {
-            callback.onPackageInstalled(packageName, sink);
-        }
-    }
-
-    void onPackageUpdated(String packageName) {
-        for (EventChannel.EventSink sink : sinks) {
-            callback.onPackageUpdated(packageName, sink);
-        }
-    }
-
-    void onPackageUninstalled(String packageName) {
-        for (EventChannel.EventSink sink : sinks) {
-            callback.onPackageUninstalled(packageName, sink);
-        }
-    }
-
-    void onPackageChanged(String packageName) {
-        for (EventChannel.EventSink sink : sinks) {
-            callback.onPackageChanged(packageName, sink);
+    void onPackageEvent(String packageName, String eventType) {
+        // The data of the event is computed once for all the sinks (and not at all without sink)
+        if (batcher != null || !sinks.isEmpty()) {
+            callback.onPackageEvent(packageName, eventType);
         }
     }
 
     public void unregister(@NonNull Context context) {
-        if (appsBroadcastReceiver != null) {
+        if (appsBroadcastReceiver != null && registered) {
             context.unregisterReceiver(appsBroadcastReceiver);
+            registered = false;
         }
 
         sinks.clear();
+        removeBatchedSink();
     }
 
 }
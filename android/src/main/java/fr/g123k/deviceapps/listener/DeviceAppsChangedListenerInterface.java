@@ -1,15 +1,16 @@
 package fr.g123k.deviceapps.listener;
 
-import io.flutter.plugin.common.EventChannel;
+import java.util.Map;
 
 public interface DeviceAppsChangedListenerInterface {
 
-    void onPackageInstalled(String packageName, EventChannel.EventSink events);
+    void onPackageStateChanged(String packageName);
 
-    void onPackageUpdated(String packageName, EventChannel.EventSink events);
-
-    void onPackageUninstalled(String packageName, EventChannel.EventSink events);
-
-    void onPackageChanged(String packageName, EventChannel.EventSink events);
+    /**
+     * An event for the sinks: its data has to be computed once, then sent with
+     * {@link DeviceAppsChangedListener#sendEvent(String, String, Map)}.
+     * The event type is {@code "changed"} when the app was enabled or disabled
+     */
+    void onPackageEvent(String packageName, String eventType);
 
 }
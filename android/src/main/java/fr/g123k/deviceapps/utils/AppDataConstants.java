@@ -14,6 +14,13 @@ public class AppDataConstants {
     public static final String IS_ENABLED = "is_enabled";
     public static final String CATEGORY = "category";
     public static final String APP_ICON = "app_icon";
+    public static final String APP_ICON_PATH = "app_icon_path";
+    public static final String APP_ICON_FORMAT = "app_icon_format";
+    public static final String APP_ICON_WIDTH = "app_icon_width";
+    public static final String APP_ICON_HEIGHT = "app_icon_height";
+    // Index of the previous app of the list with the same icon (sent instead of APP_ICON)
+    public static final String APP_ICON_REF = "app_icon_ref";
     public static final String FOR_WORK_PROFILE = "for_work_profile";
+    public static final String PROFILE_ID = "profile_id";
 
 }
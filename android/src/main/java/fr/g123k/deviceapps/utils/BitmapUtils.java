@@ -0,0 +1,71 @@
+package fr.g123k.deviceapps.utils;
+
+import android.graphics.Bitmap;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BitmapUtils {
+
+    private static final int INITIAL_BUFFER_SIZE = 32 * 1024;
+    // Buffers growing above this size are not kept, to avoid retaining too much memory
+    private static final int MAX_REUSABLE_BUFFER_SIZE = 1024 * 1024;
+
+    private static final AtomicLong ALLOCATED_BUFFERS = new AtomicLong();
+
+    // One output buffer per worker thread
+    private static final ThreadLocal<ReusableOutputStream> OUTPUT_STREAMS = new ThreadLocal<ReusableOutputStream>() {
+        @Override
+        protected ReusableOutputStream initialValue() {
+            ALLOCATED_BUFFERS.incrementAndGet();
+            return new ReusableOutputStream();
+        }
+    };
+
+    public static EncodedIcon encode(Bitmap image, IconOptions options) {
+        byte[] bytes;
+
+        if (options.format == IconOptions.Format.RAW_RGBA) {
+            // The memory layout of an ARGB_8888 bitmap is already RGBA
+            ByteBuffer buffer = ByteBuffer.allocate(image.getByteCount());
+            image.copyPixelsToBuffer(buffer);
+            bytes = buffer.array();
+        } else {
+            // WEBP lossless ignores the quality on API < 30, except for 100
+            int quality = options.format == IconOptions.Format.WEBP_LOSSLESS ? 100 : options.quality;
+
+            ReusableOutputStream outputStream = OUTPUT_STREAMS.get();
+            outputStream.reset();
+            image.compress(options.format.getCompressFormat(), quality, outputStream);
+            bytes = outputStream.toByteArray();
+
+            if (outputStream.capacity() > MAX_REUSABLE_BUFFER_SIZE) {
+                OUTPUT_STREAMS.remove();
+            }
+        }
+
+        return new EncodedIcon(bytes, image.getWidth(), image.getHeight(), options.format);
+    }
+
+    public static long getAllocatedBuffersCount() {
+        return ALLOCATED_BUFFERS.get();
+    }
+
+    public static void resetCounters() {
+        ALLOCATED_BUFFERS.set(0);
+    }
+
+    private static class ReusableOutputStream extends ByteArrayOutputStream {
+
+        ReusableOutputStream() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+    }
+
+}
@@ -2,15 +2,42 @@ package fr.g123k.deviceapps.utils;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class DrawableUtils {
 
+    private static final AtomicLong ALLOCATED_BITMAPS = new AtomicLong();
+    private static final AtomicLong REUSED_BITMAPS = new AtomicLong();
+    private static final AtomicLong UNCHANGED_BITMAPS = new AtomicLong();
+
+    // One bitmap (and its canvas) per worker thread, reused for every icon of the same size
+    private static final ThreadLocal<RenderTarget> RENDER_TARGETS = new ThreadLocal<RenderTarget>() {
+        @Override
+        protected RenderTarget initialValue() {
+            return new RenderTarget();
+        }
+    };
+
     public static Bitmap getBitmapFromDrawable(Drawable drawable) {
+        return getBitmapFromDrawable(drawable, 0);
+    }
+
+    /**
+     * Renders the drawable directly in a bitmap whose biggest side is {@code size} (the aspect
+     * ratio is kept). If {@code size} is 0, the intrinsic size of the drawable is used
+     */
+    public static Bitmap getBitmapFromDrawable(Drawable drawable, int size) {
+        int[] dimensions = getDimensions(drawable, size);
+
         final Bitmap bmp = Bitmap.createBitmap(
-                drawable.getIntrinsicWidth(),
-                drawable.getIntrinsicHeight(),
+                dimensions[0],
+                dimensions[1],
                 Bitmap.Config.ARGB_8888);
+        ALLOCATED_BITMAPS.incrementAndGet();
 
         final Canvas canvas = new Canvas(bmp);
         drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
@@ -19,4 +46,97 @@ public class DrawableUtils {
         return bmp;
     }
 
+    /**
+     * Same as {@link #getBitmapFromDrawable(Drawable, int)}, but without allocating a new bitmap
+     * each time:
+     * - if the drawable is a {@link BitmapDrawable} of the right size, its bitmap is returned
+     * - otherwise, a bitmap owned by the current thread is reused (if it has the same size).
+     * <p>
+     * The returned bitmap must only be read (eg: to be encoded), and only until the next call to
+     * this method on the same thread
+     */
+    public static Bitmap drawToReusableBitmap(Drawable drawable, int size) {
+        int[] dimensions = getDimensions(drawable, size);
+        int width = dimensions[0];
+        int height = dimensions[1];
+
+        if (drawable instanceof BitmapDrawable) {
+            Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            if (bitmap != null
+                    && bitmap.getWidth() == width
+                    && bitmap.getHeight() == height
+                    && bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+                UNCHANGED_BITMAPS.incrementAndGet();
+                return bitmap;
+            }
+        }
+
+        RenderTarget target = RENDER_TARGETS.get();
+        if (target.bitmap != null && target.bitmap.getWidth() == width && target.bitmap.getHeight() == height) {
+            target.bitmap.eraseColor(Color.TRANSPARENT);
+            REUSED_BITMAPS.incrementAndGet();
+        } else {
+            target.bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            target.canvas.setBitmap(target.bitmap);
+            ALLOCATED_BITMAPS.incrementAndGet();
+        }
+
+        drawable.setBounds(0, 0, width, height);
+        drawable.draw(target.canvas);
+
+        return target.bitmap;
+    }
+
+    public static long getAllocatedBitmapsCount() {
+        return ALLOCATED_BITMAPS.get();
+    }
+
+    public static long getReusedBitmapsCount() {
+        return REUSED_BITMAPS.get();
+    }
+
+    /**
+     * Number of {@link BitmapDrawable}s whose bitmap was used as is
+     */
+    public static long getUnchangedBitmapsCount() {
+        return UNCHANGED_BITMAPS.get();
+    }
+
+    public static void resetCounters() {
+        ALLOCATED_BITMAPS.set(0);
+        REUSED_BITMAPS.set(0);
+        UNCHANGED_BITMAPS.set(0);
+    }
+
+    private static int[] getDimensions(Drawable drawable, int size) {
+        int width = drawable.getIntrinsicWidth();
+        int height = drawable.getIntrinsicHeight();
+
+        if (size > 0) {
+            if (width <= 0 || height <= 0) {
+                width = size;
+                height = size;
+            } else if (width >= height) {
+                height = Math.max(1, Math.round(height * size / (float) width));
+                width = size;
+            } else {
+                width = Math.max(1, Math.round(width * size / (float) height));
+                height = size;
+            }
+        } else {
+            // Some drawables (eg: colors) don't have an intrinsic size
+            width = Math.max(1, width);
+            height = Math.max(1, height);
+        }
+
+        return new int[]{width, height};
+    }
+
+    private static class RenderTarget {
+
+        final Canvas canvas = new Canvas();
+        Bitmap bitmap;
+
+    }
+
 }
@@ -0,0 +1,17 @@
+package fr.g123k.deviceapps.utils;
+
+public class EncodedIcon {
+
+    public final byte[] bytes;
+    public final int width;
+    public final int height;
+    public final IconOptions.Format format;
+
+    public EncodedIcon(byte[] bytes, int width, int height, IconOptions.Format format) {
+        this.bytes = bytes;
+        this.width = width;
+        this.height = height;
+        this.format = format;
+    }
+
+}
@@ -0,0 +1,69 @@
+package fr.g123k.deviceapps.utils;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+public class IconOptions {
+
+    public static final IconOptions DEFAULT = new IconOptions(0, Format.PNG, 100);
+
+    // 0 means the intrinsic size of the drawable
+    public final int size;
+    public final Format format;
+    public final int quality;
+    // Send the path of the cached file instead of the bytes
+    public final boolean asFile;
+
+    public IconOptions(int size, Format format, int quality) {
+        this(size, format, quality, false);
+    }
+
+    public IconOptions(int size, Format format, int quality, boolean asFile) {
+        this.size = Math.max(0, size);
+        this.format = format != null ? format : Format.PNG;
+        this.quality = Math.max(0, Math.min(100, quality));
+        this.asFile = asFile;
+    }
+
+    /**
+     * Unique key for the rendered icon (whether it is sent as a file or not), to be used by caches
+     */
+    public String getKey() {
+        return size + "_" + format.name + "_" + quality;
+    }
+
+    public enum Format {
+        PNG("png"),
+        WEBP_LOSSY("webp_lossy"),
+        WEBP_LOSSLESS("webp_lossless"),
+        RAW_RGBA("raw_rgba");
+
+        public final String name;
+
+        Format(String name) {
+            this.name = name;
+        }
+
+        public static Format fromName(String name) {
+            for (Format format : values()) {
+                if (format.name.equals(name)) {
+                    return format;
+                }
+            }
+            return PNG;
+        }
+
+        @SuppressWarnings("deprecation")
+        Bitmap.CompressFormat getCompressFormat() {
+            switch (this) {
+                case WEBP_LOSSY:
+                    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+                case WEBP_LOSSLESS:
+                    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? Bitmap.CompressFormat.WEBP_LOSSLESS : Bitmap.CompressFormat.WEBP;
+                default:
+                    return Bitmap.CompressFormat.PNG;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package fr.g123k.deviceapps;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.g123k.deviceapps.utils.AppDataConstants;
+
+import static org.junit.Assert.assertEquals;
+
+public class AppsQueryTest {
+
+    private static final int CATEGORY_GAME = 0;
+    private static final int CATEGORY_SOCIAL = 4;
+
+    private final List<AppsQuery.IndexedApp> apps = Arrays.asList(
+            app("Calculator", "com.android.calculator2", true, true, -1, 10),
+            app("\u00c9clair Caf\u00e9", "com.example.cafe", false, true, CATEGORY_SOCIAL, 40),
+            app("Chess", "com.example.chess", false, true, CATEGORY_GAME, 30),
+            app("Disabled Chess", "com.example.oldchess", false, false, CATEGORY_GAME, 20),
+            app("Maps", "com.google.android.apps.maps", false, true, -1, 50)
+    );
+
+    @Test
+    public void normalizeRemovesAccentsAndCase() {
+        assertEquals("eclair cafe", AppsQuery.normalize("\u00c9clair Caf\u00e9"));
+    }
+
+    @Test
+    public void emptyTextMatchesAllApps() {
+        AppsQuery.Result result = query("", false, null, true, null, AppsQuery.Sort.LABEL, false, 0, 0).select(apps);
+
+        assertEquals(5, result.total);
+        assertEquals(Arrays.asList("com.android.calculator2", "com.example.chess", "com.example.oldchess", "com.example.cafe", "com.google.android.apps.maps"), packageNames(result));
+    }
+
+    @Test
+    public void textIsSearchedWithoutAccents() {
+        AppsQuery.Result result = query("CAFE", false, null, true, null, AppsQuery.Sort.LABEL, false, 0, 0).select(apps);
+
+        assertEquals(Arrays.asList("com.example.cafe"), packageNames(result));
+    }
+
+    @Test
+    public void prefixMatchesWordsAndPackageNames() {
+        AppsQuery.Result words = query("chess", true, null, true, null, AppsQuery.Sort.LABEL, false, 0, 0).select(apps);
+        assertEquals(Arrays.asList("com.example.chess", "com.example.oldchess"), packageNames(words));
+
+        AppsQuery.Result packages = query("com.google", true, null, true, null, AppsQuery.Sort.LABEL, false, 0, 0).select(apps);
+        assertEquals(Arrays.asList("com.google.android.apps.maps"), packageNames(packages));
+
+        AppsQuery.Result middle = query("ess", true, null, true, null, AppsQuery.Sort.LABEL, false, 0, 0).select(apps);
+        assertEquals(0, middle.total);
+    }
+
+    @Test
+    public void filtersAreCombined() {
+        AppsQuery.Result result = query("", false, CATEGORY_GAME, false, true, AppsQuery.Sort.LABEL, false, 0, 0).select(apps);
+
+        assertEquals(Arrays.asList("com.example.chess"), packageNames(result));
+    }
+
+    @Test
+    public void systemAppsCanBeExcluded() {
+        AppsQuery.Result result = query("", false, null, false, null, AppsQuery.Sort.PACKAGE_NAME, false, 0, 0).select(apps);
+
+        assertEquals(4, result.total);
+        assertEquals("com.example.cafe", packageNames(result).get(0));
+    }
+
+    @Test
+    public void pageIsSortedAfterOffsetAndLimit() {
+        AppsQuery.Result result = query("", false, null, true, null, AppsQuery.Sort.INSTALL_TIME, true, 1, 2).select(apps);
+
+        // Total is counted before the page is selected
+        assertEquals(5, result.total);
+        assertEquals(Arrays.asList("com.example.cafe", "com.example.chess"), packageNames(result));
+    }
+
+    @Test
+    public void offsetAfterTheLastAppReturnsAnEmptyPage() {
+        AppsQuery.Result result = query("", false, null, true, null, AppsQuery.Sort.LABEL, false, 10, 5).select(apps);
+
+        assertEquals(5, result.total);
+        assertEquals(0, result.entries.size());
+    }
+
+    @Test
+    public void unknownSortUsesTheLabel() {
+        assertEquals(AppsQuery.Sort.LABEL, AppsQuery.Sort.fromName("unknown"));
+        assertEquals(AppsQuery.Sort.UPDATE_TIME, AppsQuery.Sort.fromName("update_time"));
+    }
+
+    private static AppsQuery query(String text,
+                                   boolean prefix,
+                                   Integer category,
+                                   boolean includeSystemApps,
+                                   Boolean enabled,
+                                   AppsQuery.Sort sort,
+                                   boolean descending,
+                                   int offset,
+                                   int limit) {
+        return new AppsQuery(text, prefix, category, includeSystemApps, enabled, sort, descending, offset, limit);
+    }
+
+    private static AppsQuery.IndexedApp app(String label, String packageName, boolean systemApp, boolean enabled, int category, long installTime) {
+        Map<String, Object> data = new HashMap<>();
+        data.put(AppDataConstants.APP_NAME, label);
+        data.put(AppDataConstants.PACKAGE_NAME, packageName);
+        data.put(AppDataConstants.SYSTEM_APP, systemApp);
+        data.put(AppDataConstants.IS_ENABLED, enabled);
+        data.put(AppDataConstants.CATEGORY, category);
+        data.put(AppDataConstants.INSTALL_TIME, installTime);
+        data.put(AppDataConstants.UPDATE_TIME, installTime);
+        return new AppsQuery.IndexedApp(new AppsCatalog.Entry(null, data), data);
+    }
+
+    private static List<String> packageNames(AppsQuery.Result result) {
+        List<String> packageNames = new ArrayList<>(result.entries.size());
+        for (AppsCatalog.Entry entry : result.entries) {
+            packageNames.add((String) entry.data.get(AppDataConstants.PACKAGE_NAME));
+        }
+        return packageNames;
+    }
+
+}
@@ -0,0 +1,109 @@
+package fr.g123k.deviceapps;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.g123k.deviceapps.utils.AppDataConstants;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CatalogSnapshotTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appsAreReadAsWritten() throws IOException {
+        Map<String, Object> app = new HashMap<>();
+        app.put(AppDataConstants.PACKAGE_NAME, "com.example.app");
+        app.put(AppDataConstants.APP_NAME, "Exemple d'app");
+        app.put(AppDataConstants.SYSTEM_APP, true);
+        app.put(AppDataConstants.CATEGORY, 4);
+        app.put(AppDataConstants.INSTALL_TIME, 1600000000000L);
+        app.put(AppDataConstants.VERSION_NAME, null);
+
+        List<Map<String, Object>> apps = new ArrayList<>();
+        apps.add(app);
+
+        File file = folder.newFile("snapshot");
+        new CatalogSnapshot("token", "fr_FR", apps).write(file);
+        CatalogSnapshot snapshot = CatalogSnapshot.read(file);
+
+        assertEquals("token", snapshot.token);
+        assertEquals("fr_FR", snapshot.locale);
+        assertEquals(apps, snapshot.apps);
+        assertTrue(snapshot.apps.get(0).containsKey(AppDataConstants.VERSION_NAME));
+    }
+
+    @Test
+    public void unsupportedValuesAreNotSaved() throws IOException {
+        Map<String, Object> app = new HashMap<>();
+        app.put(AppDataConstants.PACKAGE_NAME, "com.example.app");
+        app.put(AppDataConstants.APP_ICON, new byte[]{1, 2, 3});
+
+        List<Map<String, Object>> apps = new ArrayList<>();
+        apps.add(app);
+
+        File file = folder.newFile("snapshot");
+        new CatalogSnapshot(null, "en_US", apps).write(file);
+        CatalogSnapshot snapshot = CatalogSnapshot.read(file);
+
+        assertNull(snapshot.token);
+        assertEquals("com.example.app", snapshot.apps.get(0).get(AppDataConstants.PACKAGE_NAME));
+        assertFalse(snapshot.apps.get(0).containsKey(AppDataConstants.APP_ICON));
+    }
+
+    @Test
+    public void missingSnapshotIsNull() {
+        assertNull(CatalogSnapshot.read(new File(folder.getRoot(), "missing")));
+    }
+
+    @Test
+    public void invalidSnapshotIsNull() throws IOException {
+        File file = folder.newFile("snapshot");
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(new byte[]{0, 1, 2, 3, 4, 5, 6, 7});
+        } finally {
+            outputStream.close();
+        }
+
+        assertNull(CatalogSnapshot.read(file));
+    }
+
+    @Test
+    public void truncatedSnapshotIsNull() throws IOException {
+        List<Map<String, Object>> apps = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Map<String, Object> app = new HashMap<>();
+            app.put(AppDataConstants.PACKAGE_NAME, "com.example.app" + i);
+            apps.add(app);
+        }
+
+        File file = folder.newFile("snapshot");
+        new CatalogSnapshot("token", "en_US", apps).write(file);
+        File truncatedFile = folder.newFile("truncated");
+        byte[] bytes = IconDiskCache.readBytes(file);
+        FileOutputStream outputStream = new FileOutputStream(truncatedFile);
+        try {
+            outputStream.write(bytes, 0, bytes.length / 2);
+        } finally {
+            outputStream.close();
+        }
+
+        assertNull(CatalogSnapshot.read(truncatedFile));
+    }
+
+}
@@ -0,0 +1,253 @@
+package fr.g123k.deviceapps;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.g123k.deviceapps.utils.AppDataConstants;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompactAppsCodecTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void appsAreDecodedAsEncoded() {
+        List<Map<String, Object>> apps = new ArrayList<>();
+        apps.add(app("com.example.first", "Premi\u00e8re", "/data/app/com.example.first/base.apk", true, 4, 1600000000000L, new byte[]{1, 2, 3}));
+        apps.add(app("com.example.second", "Second", "/data/app/com.example.second/base.apk", false, null, 12, null));
+        apps.add(app("com.android.settings", "Settings", "/system/priv-app/Settings/Settings.apk", true, 0, 1L << 40, new byte[0]));
+
+        List<Map<String, Object>> decodedApps = decode(CompactAppsCodec.encodeApps(apps));
+
+        assertEquals(apps.size(), decodedApps.size());
+        for (int i = 0; i < apps.size(); i++) {
+            Map<String, Object> app = apps.get(i);
+            Map<String, Object> decodedApp = decodedApps.get(i);
+
+            assertEquals(app.get(AppDataConstants.PACKAGE_NAME), decodedApp.get(AppDataConstants.PACKAGE_NAME));
+            assertEquals(app.get(AppDataConstants.APP_NAME), decodedApp.get(AppDataConstants.APP_NAME));
+            assertEquals(app.get(AppDataConstants.APK_FILE_PATH), decodedApp.get(AppDataConstants.APK_FILE_PATH));
+            assertEquals(app.get(AppDataConstants.SYSTEM_APP), decodedApp.get(AppDataConstants.SYSTEM_APP));
+            assertEquals(app.get(AppDataConstants.CATEGORY), decodedApp.get(AppDataConstants.CATEGORY));
+            // Ints and longs of a same column are all sent as longs
+            assertEquals(((Number) app.get(AppDataConstants.INSTALL_TIME)).longValue(), decodedApp.get(AppDataConstants.INSTALL_TIME));
+            assertEquals(app.containsKey(AppDataConstants.APP_ICON), decodedApp.containsKey(AppDataConstants.APP_ICON));
+            if (app.containsKey(AppDataConstants.APP_ICON)) {
+                assertArrayEquals((byte[]) app.get(AppDataConstants.APP_ICON), (byte[]) decodedApp.get(AppDataConstants.APP_ICON));
+            }
+        }
+        assertFalse(decodedApps.get(1).containsKey(AppDataConstants.CATEGORY));
+    }
+
+    @Test
+    public void stringsAreOnlySentOnce() {
+        List<Map<String, Object>> apps = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            apps.add(app("com.example.app" + i, "Same label", "/data/app/com.example.app" + i + "/base.apk", false, 0, i, null));
+        }
+
+        ByteBuffer encodedApps = CompactAppsCodec.encodeApps(apps);
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (String value : readStringTable(encodedApps)) {
+            Integer count = occurrences.get(value);
+            occurrences.put(value, count != null ? count + 1 : 1);
+        }
+
+        assertEquals(Integer.valueOf(1), occurrences.get("Same label"));
+        assertEquals(Integer.valueOf(1), occurrences.get("/data/app/"));
+        assertEquals(Integer.valueOf(1), occurrences.get(AppDataConstants.PACKAGE_NAME));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void columnsMixingTypesAreRejected() {
+        List<Map<String, Object>> apps = new ArrayList<>();
+        apps.add(app("com.example.first", "First", "/data/app/com.example.first/base.apk", false, 4, 1, null));
+        apps.add(app("com.example.second", "Second", "/data/app/com.example.second/base.apk", false, 4, 2, null));
+        apps.get(1).put(AppDataConstants.CATEGORY, "game");
+
+        CompactAppsCodec.encodeApps(apps);
+    }
+
+    @Test
+    public void sizeIsComputedBeforeEncoding() {
+        List<Map<String, Object>> apps = new ArrayList<>();
+        apps.add(app("com.example.first", "First", "/data/app/com.example.first/base.apk", true, 4, 1L << 40, new byte[]{1, 2, 3}));
+
+        ByteBuffer encodedApps = CompactAppsCodec.encodeApps(apps);
+
+        // The size is computed before writing: nothing is left unused
+        assertEquals(encodedApps.capacity(), encodedApps.position());
+    }
+
+    @Test
+    public void emptyListIsEncoded() {
+        assertTrue(decode(CompactAppsCodec.encodeApps(new ArrayList<Map<String, Object>>())).isEmpty());
+    }
+
+    @Test
+    public void errorIsEncoded() {
+        ByteBuffer buffer = flip(CompactAppsCodec.encodeError("ERROR", "Context is null"));
+
+        assertEquals(1, buffer.get());
+        assertEquals(1, buffer.get());
+        assertEquals("ERROR", readString(buffer));
+        assertEquals("Context is null", readString(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void encodedRepliesAreSentAsIs() {
+        ByteBuffer encodedApps = CompactAppsCodec.encodeApps(new ArrayList<Map<String, Object>>());
+
+        assertTrue(encodedApps.isDirect());
+        assertSame(encodedApps, CompactAppsCodec.INSTANCE.encodeMessage(encodedApps));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void repliesMustBeEncoded() {
+        CompactAppsCodec.INSTANCE.encodeMessage(Arrays.asList(1, 2, 3));
+    }
+
+    private static Map<String, Object> app(String packageName,
+                                           String label,
+                                           String apkFilePath,
+                                           boolean systemApp,
+                                           Integer category,
+                                           long installTime,
+                                           byte[] icon) {
+        Map<String, Object> app = new HashMap<>();
+        app.put(AppDataConstants.PACKAGE_NAME, packageName);
+        app.put(AppDataConstants.APP_NAME, label);
+        app.put(AppDataConstants.APK_FILE_PATH, apkFilePath);
+        app.put(AppDataConstants.SYSTEM_APP, systemApp);
+        app.put(AppDataConstants.CATEGORY, category);
+        // Small values are ints, like the version codes sent by the plugin
+        app.put(AppDataConstants.INSTALL_TIME, installTime <= Integer.MAX_VALUE ? (Object) (int) installTime : (Object) installTime);
+        if (icon != null) {
+            app.put(AppDataConstants.APP_ICON, icon);
+        }
+        return app;
+    }
+
+    /**
+     * Same format as the Dart decoder
+     */
+    private static List<Map<String, Object>> decode(ByteBuffer encodedApps) {
+        ByteBuffer buffer = flip(encodedApps);
+        assertEquals(1, buffer.get());
+        assertEquals(0, buffer.get());
+
+        int rowsCount = buffer.getInt();
+        List<String> strings = readStrings(buffer);
+
+        List<Map<String, Object>> apps = new ArrayList<>(rowsCount);
+        for (int row = 0; row < rowsCount; row++) {
+            apps.add(new HashMap<String, Object>());
+        }
+
+        int columnsCount = buffer.getInt();
+        for (int column = 0; column < columnsCount; column++) {
+            String key = strings.get(buffer.getInt());
+            byte type = buffer.get();
+            byte[] presence = new byte[(rowsCount + 7) / 8];
+            buffer.get(presence);
+
+            List<Integer> rows = new ArrayList<>();
+            for (int row = 0; row < rowsCount; row++) {
+                if ((presence[row >> 3] & (1 << (row & 7))) != 0) {
+                    rows.add(row);
+                }
+            }
+
+            switch (type) {
+                case 0:
+                    byte[] bits = new byte[presence.length];
+                    buffer.get(bits);
+                    for (int row : rows) {
+                        apps.get(row).put(key, (bits[row >> 3] & (1 << (row & 7))) != 0);
+                    }
+                    break;
+                case 1:
+                    for (int row : rows) {
+                        apps.get(row).put(key, buffer.getInt());
+                    }
+                    break;
+                case 2:
+                    for (int row : rows) {
+                        apps.get(row).put(key, buffer.getLong());
+                    }
+                    break;
+                case 3:
+                    for (int row : rows) {
+                        apps.get(row).put(key, strings.get(buffer.getInt()));
+                    }
+                    break;
+                case 4:
+                    for (int row : rows) {
+                        String prefix = strings.get(buffer.getInt());
+                        apps.get(row).put(key, prefix + strings.get(buffer.getInt()));
+                    }
+                    break;
+                case 5:
+                    int[] lengths = new int[rows.size()];
+                    for (int i = 0; i < lengths.length; i++) {
+                        lengths[i] = buffer.getInt();
+                    }
+                    for (int i = 0; i < lengths.length; i++) {
+                        byte[] bytes = new byte[lengths[i]];
+                        buffer.get(bytes);
+                        apps.get(rows.get(i)).put(key, bytes);
+                    }
+                    break;
+                default:
+                    throw new AssertionError("Unknown type " + type);
+            }
+        }
+
+        assertFalse(buffer.hasRemaining());
+        return apps;
+    }
+
+    private static List<String> readStringTable(ByteBuffer encodedApps) {
+        ByteBuffer buffer = flip(encodedApps);
+        buffer.position(6);
+        return readStrings(buffer);
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(readString(buffer));
+        }
+        return strings;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Replies are written up to their position
+     */
+    private static ByteBuffer flip(ByteBuffer encodedMessage) {
+        ByteBuffer buffer = encodedMessage.duplicate();
+        buffer.flip();
+        return buffer;
+    }
+
+}
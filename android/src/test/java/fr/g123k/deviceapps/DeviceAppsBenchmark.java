@@ -0,0 +1,276 @@
+package fr.g123k.deviceapps;
+
+import android.graphics.drawable.Drawable;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import fr.g123k.deviceapps.utils.AppDataConstants;
+import fr.g123k.deviceapps.utils.BitmapUtils;
+import fr.g123k.deviceapps.utils.DrawableUtils;
+import fr.g123k.deviceapps.utils.EncodedIcon;
+import fr.g123k.deviceapps.utils.IconOptions;
+import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.plugin.common.StandardMessageCodec;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Benchmarks of the list call on a plain JVM (no device), with 50, 500 and 5,000 fake apps (see
+ * {@link FakeDevice}):
+ * <ul>
+ * <li>the list call, from the method call to the result, when the catalog is cold (enumeration
+ * and {@code getAppData} of every app) and when it is loaded</li>
+ * <li>the rendering and the encoding of a single icon, per format</li>
+ * <li>the serialization of the list with the standard codec and with {@link CompactAppsCodec}</li>
+ * </ul>
+ * Only run with: {@code ./gradlew testDebugUnitTest -Pbenchmark --tests '*DeviceAppsBenchmark'}.
+ * Fakes are mocks: absolute times are only meaningful to compare two versions of the plugin on
+ * the same machine.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class DeviceAppsBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 10;
+    private static final int ICON_SIZE = 96;
+    private static final long TIMEOUT_MS = 60 * 1000;
+
+    private final int appsCount;
+    private FakeDevice device;
+    private FlutterPlugin.FlutterPluginBinding binding;
+
+    public DeviceAppsBenchmark(int appsCount) {
+        this.appsCount = appsCount;
+    }
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} apps")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][]{{50}, {500}, {5000}});
+    }
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Benchmarks only run with -Pbenchmark", Boolean.getBoolean("deviceapps.benchmark"));
+
+        device = new FakeDevice(appsCount);
+        binding = mock(FlutterPlugin.FlutterPluginBinding.class);
+        when(binding.getApplicationContext()).thenReturn(device.context);
+        when(binding.getBinaryMessenger()).thenReturn(mock(BinaryMessenger.class));
+    }
+
+    @After
+    public void tearDown() {
+        device = null;
+        binding = null;
+    }
+
+    @Test
+    public void installedAppsCold() {
+        long[] durations = new long[ITERATIONS];
+        for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+            // A new plugin has an empty catalog
+            DeviceAppsPlugin plugin = new DeviceAppsPlugin();
+            plugin.onAttachedToEngine(binding);
+
+            long start = System.nanoTime();
+            List<Map<String, Object>> apps = getInstalledApps(plugin);
+            long duration = System.nanoTime() - start;
+
+            plugin.onDetachedFromEngine(binding);
+            assertEquals(appsCount, apps.size());
+            if (i >= 0) {
+                durations[i] = duration;
+            }
+        }
+        report("getMainProfileInstalledApps (cold)", durations, appsCount, "app");
+    }
+
+    @Test
+    public void installedAppsWarm() {
+        DeviceAppsPlugin plugin = new DeviceAppsPlugin();
+        plugin.onAttachedToEngine(binding);
+        try {
+            getInstalledApps(plugin);
+
+            long[] durations = new long[ITERATIONS];
+            for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                getInstalledApps(plugin);
+                long duration = System.nanoTime() - start;
+
+                if (i >= 0) {
+                    durations[i] = duration;
+                }
+            }
+            report("getMainProfileInstalledApps (warm)", durations, appsCount, "app");
+        } finally {
+            plugin.onDetachedFromEngine(binding);
+        }
+    }
+
+    @Test
+    public void iconRenderAndEncode() {
+        // The cost of an icon doesn't depend on the number of apps
+        Assume.assumeTrue(appsCount == 50);
+
+        List<IconOptions> allOptions = Arrays.asList(
+                new IconOptions(0, IconOptions.Format.PNG, 100),
+                new IconOptions(ICON_SIZE, IconOptions.Format.PNG, 100),
+                new IconOptions(ICON_SIZE, IconOptions.Format.WEBP_LOSSY, 80),
+                new IconOptions(ICON_SIZE, IconOptions.Format.RAW_RGBA, 100)
+        );
+
+        for (IconOptions options : allOptions) {
+            long[] durations = new long[ITERATIONS];
+            for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                for (int j = 0; j < appsCount; j++) {
+                    Drawable icon = device.icons.get(j % device.icons.size());
+                    BitmapUtils.encode(DrawableUtils.drawToReusableBitmap(icon, options.size), options);
+                }
+                long duration = System.nanoTime() - start;
+
+                if (i >= 0) {
+                    durations[i] = duration;
+                }
+            }
+            report("icon " + options.getKey(), durations, appsCount, "icon");
+        }
+    }
+
+    @Test
+    public void codecSerialization() {
+        List<Map<String, Object>> apps;
+        DeviceAppsPlugin plugin = new DeviceAppsPlugin();
+        plugin.onAttachedToEngine(binding);
+        try {
+            apps = getInstalledApps(plugin);
+        } finally {
+            plugin.onDetachedFromEngine(binding);
+        }
+
+        IconOptions iconOptions = new IconOptions(ICON_SIZE, IconOptions.Format.PNG, 100);
+        List<byte[]> encodedIcons = new ArrayList<>(device.icons.size());
+        for (Drawable icon : device.icons) {
+            EncodedIcon encodedIcon = BitmapUtils.encode(DrawableUtils.drawToReusableBitmap(icon, ICON_SIZE), iconOptions);
+            encodedIcons.add(encodedIcon.bytes);
+        }
+
+        List<Map<String, Object>> appsWithIcons = new ArrayList<>(apps.size());
+        for (int i = 0; i < apps.size(); i++) {
+            Map<String, Object> app = new HashMap<>(apps.get(i));
+            app.put(AppDataConstants.APP_ICON, encodedIcons.get(i % encodedIcons.size()));
+            app.put(AppDataConstants.APP_ICON_FORMAT, iconOptions.format.name);
+            app.put(AppDataConstants.APP_ICON_WIDTH, ICON_SIZE);
+            app.put(AppDataConstants.APP_ICON_HEIGHT, ICON_SIZE);
+            appsWithIcons.add(app);
+        }
+
+        measureCodecs("without icons", apps);
+        measureCodecs("with icons", appsWithIcons);
+    }
+
+    private void measureCodecs(String name, List<Map<String, Object>> apps) {
+        long[] standardDurations = new long[ITERATIONS];
+        long[] compactDurations = new long[ITERATIONS];
+        int standardSize = 0;
+        int compactSize = 0;
+
+        for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            ByteBuffer standardBuffer = StandardMessageCodec.INSTANCE.encodeMessage(apps);
+            long standardDuration = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ByteBuffer compactBuffer = CompactAppsCodec.encodeApps(apps);
+            long compactDuration = System.nanoTime() - start;
+
+            // Messages are sent up to their position
+            standardSize = standardBuffer.position();
+            compactSize = compactBuffer.position();
+            if (i >= 0) {
+                standardDurations[i] = standardDuration;
+                compactDurations[i] = compactDuration;
+            }
+        }
+
+        report("standard codec " + name + " (" + standardSize + " bytes)", standardDurations, apps.size(), "app");
+        report("compact codec " + name + " (" + compactSize + " bytes)", compactDurations, apps.size(), "app");
+    }
+
+    /**
+     * Calls the method like the method channel would, then runs the main looper until the result
+     * is posted
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> getInstalledApps(DeviceAppsPlugin plugin) {
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put("system_apps", true);
+
+        final Object[] result = new Object[1];
+        plugin.onMethodCall(new MethodCall("getMainProfileInstalledApps", arguments), new MethodChannel.Result() {
+            @Override
+            public void success(Object value) {
+                result[0] = value;
+            }
+
+            @Override
+            public void error(String errorCode, String errorMessage, Object errorDetails) {
+                throw new AssertionError(errorCode + ": " + errorMessage);
+            }
+
+            @Override
+            public void notImplemented() {
+                throw new AssertionError("Not implemented");
+            }
+        });
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (result[0] == null) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("No result after " + TIMEOUT_MS + " ms");
+            }
+            shadowOf(Looper.getMainLooper()).idle();
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+        }
+        return (List<Map<String, Object>>) result[0];
+    }
+
+    private void report(String name, long[] durations, int operations, String unit) {
+        long[] sortedDurations = durations.clone();
+        Arrays.sort(sortedDurations);
+        double medianMs = sortedDurations[sortedDurations.length / 2] / 1e6;
+        double minMs = sortedDurations[0] / 1e6;
+
+        System.out.println(String.format(Locale.ROOT, "[%5d apps] %-55s median %9.3f ms, min %9.3f ms, %8.2f us/%s",
+                appsCount, name, medianMs, minMs, medianMs * 1000 / operations, unit));
+    }
+
+}
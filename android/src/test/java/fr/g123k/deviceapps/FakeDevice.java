@@ -0,0 +1,144 @@
+package fr.g123k.deviceapps;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.LauncherActivityInfo;
+import android.content.pm.LauncherApps;
+import android.content.pm.PackageInfo;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Process;
+import android.os.UserHandle;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * A device with {@code appsCount} synthetic apps on the main profile, to run the plugin on the
+ * JVM (with Robolectric): the {@link LauncherApps} is a mock returning fake activities, and the
+ * packages are installed in the {@link android.content.pm.PackageManager} of Robolectric.
+ * Icons are bitmaps of {@link #ICON_SIZE} pixels, a few of them being shared between apps (to
+ * bound the memory used by 5,000 apps).
+ */
+class FakeDevice {
+
+    static final int ICON_SIZE = 192;
+    private static final int DISTINCT_ICONS_COUNT = 16;
+
+    final Context context;
+    final List<LauncherActivityInfo> activities;
+    final List<Drawable> icons;
+
+    FakeDevice(int appsCount) {
+        Context application = RuntimeEnvironment.getApplication();
+        UserHandle user = Process.myUserHandle();
+
+        icons = new ArrayList<>(DISTINCT_ICONS_COUNT);
+        for (int i = 0; i < DISTINCT_ICONS_COUNT; i++) {
+            icons.add(new BitmapDrawable(application.getResources(), createIcon(i)));
+        }
+
+        activities = new ArrayList<>(appsCount);
+        final Map<String, LauncherActivityInfo> activitiesByPackage = new HashMap<>(appsCount);
+        for (int i = 0; i < appsCount; i++) {
+            String packageName = String.format("com.example.app%05d", i);
+            // One app out of five is a system app
+            boolean systemApp = i % 5 == 0;
+
+            ApplicationInfo applicationInfo = new ApplicationInfo();
+            applicationInfo.packageName = packageName;
+            applicationInfo.sourceDir = (systemApp ? "/system/app/" : "/data/app/") + packageName + "/base.apk";
+            applicationInfo.dataDir = "/data/user/0/" + packageName;
+            applicationInfo.flags = systemApp ? ApplicationInfo.FLAG_SYSTEM : 0;
+            applicationInfo.enabled = true;
+            applicationInfo.category = i % 8;
+
+            PackageInfo packageInfo = new PackageInfo();
+            packageInfo.packageName = packageName;
+            packageInfo.applicationInfo = applicationInfo;
+            packageInfo.versionName = "1." + i;
+            packageInfo.firstInstallTime = 1600000000000L + i;
+            packageInfo.lastUpdateTime = 1600000000000L + 2 * i;
+            shadowOf(application.getPackageManager()).installPackage(packageInfo);
+
+            LauncherActivityInfo activityInfo = mock(LauncherActivityInfo.class);
+            when(activityInfo.getApplicationInfo()).thenReturn(applicationInfo);
+            when(activityInfo.getComponentName()).thenReturn(new ComponentName(packageName, packageName + ".MainActivity"));
+            when(activityInfo.getLabel()).thenReturn("App " + i);
+            when(activityInfo.getUser()).thenReturn(user);
+            when(activityInfo.getFirstInstallTime()).thenReturn(packageInfo.firstInstallTime);
+            when(activityInfo.getBadgedIcon(anyInt())).thenReturn(icons.get(i % DISTINCT_ICONS_COUNT));
+
+            activities.add(activityInfo);
+            activitiesByPackage.put(packageName, activityInfo);
+        }
+
+        LauncherApps launcherApps = mock(LauncherApps.class);
+        when(launcherApps.getProfiles()).thenReturn(Collections.singletonList(user));
+        when(launcherApps.getActivityList(nullable(String.class), any(UserHandle.class))).thenAnswer(new Answer<List<LauncherActivityInfo>>() {
+            @Override
+            public List<LauncherActivityInfo> answer(InvocationOnMock invocation) {
+                String packageName = invocation.getArgument(0);
+                if (packageName == null) {
+                    return new ArrayList<>(activities);
+                }
+
+                LauncherActivityInfo activityInfo = activitiesByPackage.get(packageName);
+                return activityInfo != null ? Collections.singletonList(activityInfo) : Collections.<LauncherActivityInfo>emptyList();
+            }
+        });
+
+        context = new FakeContext(application, launcherApps);
+    }
+
+    private static Bitmap createIcon(int index) {
+        Bitmap bitmap = Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.HSVToColor(new float[]{index * 360f / DISTINCT_ICONS_COUNT, 0.8f, 0.9f}));
+        canvas.drawCircle(ICON_SIZE / 2f, ICON_SIZE / 2f, ICON_SIZE / 2f - index, paint);
+        return bitmap;
+    }
+
+    private static class FakeContext extends ContextWrapper {
+
+        private final LauncherApps launcherApps;
+
+        FakeContext(Context base, LauncherApps launcherApps) {
+            super(base);
+            this.launcherApps = launcherApps;
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public Object getSystemService(String name) {
+            return Context.LAUNCHER_APPS_SERVICE.equals(name) ? launcherApps : super.getSystemService(name);
+        }
+
+    }
+
+}
@@ -0,0 +1,89 @@
+package fr.g123k.deviceapps;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.g123k.deviceapps.utils.AppDataConstants;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IconDeduplicatorTest {
+
+    @Test
+    public void identicalIconsAreInterned() {
+        IconDeduplicator deduplicator = new IconDeduplicator();
+        byte[] icon = {1, 2, 3};
+
+        assertSame(icon, deduplicator.intern(icon));
+        assertSame(icon, deduplicator.intern(new byte[]{1, 2, 3}));
+        assertArrayEquals(new byte[]{1, 2, 4}, deduplicator.intern(new byte[]{1, 2, 4}));
+    }
+
+    @Test
+    public void clearedIconsAreNotShared() {
+        IconDeduplicator deduplicator = new IconDeduplicator();
+        byte[] icon = {1, 2, 3};
+        deduplicator.intern(icon);
+
+        deduplicator.clear();
+
+        byte[] otherIcon = {1, 2, 3};
+        assertSame(otherIcon, deduplicator.intern(otherIcon));
+    }
+
+    @Test
+    public void duplicatesReferenceTheFirstApp() {
+        byte[] sharedIcon = {1, 2, 3};
+        byte[] otherIcon = {1, 2, 3};
+        Map<String, Object> first = app("com.example.first", sharedIcon);
+        Map<String, Object> second = app("com.example.second", otherIcon);
+        Map<String, Object> third = app("com.example.third", sharedIcon);
+        List<Map<String, Object>> apps = Arrays.asList(first, second, third);
+
+        Metrics metrics = new Metrics();
+        List<Map<String, Object>> sharedApps = IconDeduplicator.shareDuplicates(apps, metrics);
+
+        // Only the same array is shared: icons are expected to be interned
+        assertSame(first, sharedApps.get(0));
+        assertSame(second, sharedApps.get(1));
+        assertNotSame(third, sharedApps.get(2));
+        assertEquals(0, sharedApps.get(2).get(AppDataConstants.APP_ICON_REF));
+        assertFalse(sharedApps.get(2).containsKey(AppDataConstants.APP_ICON));
+        assertEquals("com.example.third", sharedApps.get(2).get(AppDataConstants.PACKAGE_NAME));
+
+        // The maps may be shared with the caches
+        assertSame(sharedIcon, third.get(AppDataConstants.APP_ICON));
+        assertFalse(third.containsKey(AppDataConstants.APP_ICON_REF));
+    }
+
+    @Test
+    public void listWithoutDuplicatesIsReturnedAsIs() {
+        List<Map<String, Object>> apps = new ArrayList<>();
+        apps.add(app("com.example.first", new byte[]{1}));
+        apps.add(app("com.example.second", null));
+        apps.add(app("com.example.third", new byte[]{2}));
+
+        assertSame(apps, IconDeduplicator.shareDuplicates(apps, new Metrics()));
+        assertTrue(IconDeduplicator.shareDuplicates(new ArrayList<Map<String, Object>>(), new Metrics()).isEmpty());
+    }
+
+    private static Map<String, Object> app(String packageName, byte[] icon) {
+        Map<String, Object> app = new HashMap<>();
+        app.put(AppDataConstants.PACKAGE_NAME, packageName);
+        if (icon != null) {
+            app.put(AppDataConstants.APP_ICON, icon);
+        }
+        return app;
+    }
+
+}
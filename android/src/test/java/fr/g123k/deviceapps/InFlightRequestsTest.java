@@ -0,0 +1,173 @@
+package fr.g123k.deviceapps;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fr.g123k.deviceapps.utils.AppDataConstants;
+import fr.g123k.deviceapps.utils.IconOptions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InFlightRequestsTest {
+
+    private static final String METHOD = "getMainProfileInstalledApps";
+
+    private final InFlightRequests inFlightRequests = new InFlightRequests();
+
+    @Test
+    public void equivalentRequestsShareTheResult() {
+        InFlightRequests.Request request = new InFlightRequests.Request(METHOD, false, null, false, null);
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+
+        assertTrue(inFlightRequests.join(request, first));
+        assertFalse(inFlightRequests.join(new InFlightRequests.Request(METHOD, false, null, false, null), second));
+
+        List<Map<String, Object>> apps = Arrays.asList(app("com.example.app", false, null));
+        inFlightRequests.complete(request, apps);
+
+        assertSame(apps, first.apps);
+        assertSame(apps, second.apps);
+    }
+
+    @Test
+    public void completedRequestIsComputedAgain() {
+        InFlightRequests.Request request = new InFlightRequests.Request(METHOD, false, null, false, null);
+
+        assertTrue(inFlightRequests.join(request, new RecordingCallback()));
+        inFlightRequests.complete(request, new ArrayList<Map<String, Object>>());
+
+        assertTrue(inFlightRequests.join(request, new RecordingCallback()));
+    }
+
+    @Test
+    public void cheaperRequestGetsAFilteredCopy() {
+        InFlightRequests.Request richRequest = new InFlightRequests.Request(METHOD, true, IconOptions.DEFAULT, false, null);
+        InFlightRequests.Request cheapRequest = new InFlightRequests.Request(METHOD, false, null, false, fields(AppDataConstants.APP_NAME));
+        RecordingCallback richCallback = new RecordingCallback();
+        RecordingCallback cheapCallback = new RecordingCallback();
+
+        assertTrue(inFlightRequests.join(richRequest, richCallback));
+        assertFalse(inFlightRequests.join(cheapRequest, cheapCallback));
+
+        Map<String, Object> userApp = app("com.example.app", false, new byte[]{1, 2, 3});
+        Map<String, Object> systemApp = app("com.android.settings", true, new byte[]{4, 5, 6});
+        inFlightRequests.complete(richRequest, Arrays.asList(userApp, systemApp));
+
+        assertEquals(2, richCallback.apps.size());
+        assertEquals(1, cheapCallback.apps.size());
+
+        Map<String, Object> extractedApp = cheapCallback.apps.get(0);
+        assertEquals("com.example.app", extractedApp.get(AppDataConstants.PACKAGE_NAME));
+        assertEquals("Label of com.example.app", extractedApp.get(AppDataConstants.APP_NAME));
+        assertFalse(extractedApp.containsKey(AppDataConstants.SYSTEM_APP));
+        assertFalse(extractedApp.containsKey(AppDataConstants.APP_ICON));
+
+        // Computed maps are never modified
+        assertTrue(userApp.containsKey(AppDataConstants.APP_ICON));
+    }
+
+    @Test
+    public void richerRequestIsNotServedByACheaperOne() {
+        InFlightRequests.Request cheapRequest = new InFlightRequests.Request(METHOD, false, null, false, null);
+        InFlightRequests.Request withSystemApps = new InFlightRequests.Request(METHOD, true, null, false, null);
+        InFlightRequests.Request withIcons = new InFlightRequests.Request(METHOD, false, IconOptions.DEFAULT, false, null);
+
+        assertTrue(inFlightRequests.join(cheapRequest, new RecordingCallback()));
+        assertTrue(inFlightRequests.join(withSystemApps, new RecordingCallback()));
+        assertTrue(inFlightRequests.join(withIcons, new RecordingCallback()));
+    }
+
+    @Test
+    public void systemAppsCanOnlyBeFilteredWithTheirFlag() {
+        InFlightRequests.Request withoutFlag = new InFlightRequests.Request(METHOD, true, null, false, fields(AppDataConstants.APP_NAME));
+        InFlightRequests.Request withoutSystemApps = new InFlightRequests.Request(METHOD, false, null, false, fields(AppDataConstants.APP_NAME));
+
+        assertFalse(withoutSystemApps.canBeServedBy(withoutFlag));
+    }
+
+    @Test
+    public void otherMethodsAreNotCoalesced() {
+        InFlightRequests.Request mainRequest = new InFlightRequests.Request(METHOD, false, null, false, null);
+        InFlightRequests.Request workRequest = new InFlightRequests.Request("getWorkProfileInstalledApps", false, null, false, null);
+
+        assertFalse(workRequest.canBeServedBy(mainRequest));
+    }
+
+    @Test
+    public void failedEnumerationIsSentToAllTheCallers() {
+        InFlightRequests.Request request = new InFlightRequests.Request(METHOD, true, null, false, null);
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+
+        assertTrue(inFlightRequests.join(request, first));
+        assertFalse(inFlightRequests.join(new InFlightRequests.Request(METHOD, false, null, false, null), second));
+
+        // Thrown by the enumeration
+        RuntimeException error = new SecurityException("Permission denied");
+        inFlightRequests.fail(request, error);
+
+        assertSame(error, first.error);
+        assertSame(error, second.error);
+        assertNull(first.apps);
+        assertNull(second.apps);
+
+        // The failed request is not shared anymore
+        assertTrue(inFlightRequests.join(request, new RecordingCallback()));
+    }
+
+    @Test
+    public void completingAnUnknownRequestDoesNothing() {
+        RecordingCallback callback = new RecordingCallback();
+        inFlightRequests.join(new InFlightRequests.Request(METHOD, false, null, false, null), callback);
+
+        inFlightRequests.complete(new InFlightRequests.Request(METHOD, true, null, false, null), new ArrayList<Map<String, Object>>());
+
+        assertNull(callback.apps);
+    }
+
+    private static Set<String> fields(String... fields) {
+        return new HashSet<>(Arrays.asList(fields));
+    }
+
+    private static Map<String, Object> app(String packageName, boolean systemApp, byte[] icon) {
+        Map<String, Object> app = new HashMap<>();
+        app.put(AppDataConstants.PACKAGE_NAME, packageName);
+        app.put(AppDataConstants.APP_NAME, "Label of " + packageName);
+        app.put(AppDataConstants.SYSTEM_APP, systemApp);
+        if (icon != null) {
+            app.put(AppDataConstants.APP_ICON, icon);
+            app.put(AppDataConstants.APP_ICON_FORMAT, IconOptions.Format.PNG.name);
+        }
+        return app;
+    }
+
+    private static class RecordingCallback implements InFlightRequests.Callback {
+
+        List<Map<String, Object>> apps;
+        RuntimeException error;
+
+        @Override
+        public void onInstalledAppsListAvailable(List<Map<String, Object>> apps) {
+            this.apps = apps;
+        }
+
+        @Override
+        public void onInstalledAppsListFailed(RuntimeException error) {
+            this.error = error;
+        }
+
+    }
+
+}
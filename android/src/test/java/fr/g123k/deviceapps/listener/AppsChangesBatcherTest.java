@@ -0,0 +1,50 @@
+package fr.g123k.deviceapps.listener;
+
+import org.junit.Test;
+
+import static fr.g123k.deviceapps.listener.AppsChangesBatcher.EVENT_TYPE_CHANGED;
+import static fr.g123k.deviceapps.listener.AppsChangesBatcher.collapse;
+import static fr.g123k.deviceapps.utils.AppDataEventConstants.EVENT_TYPE_INSTALLED;
+import static fr.g123k.deviceapps.utils.AppDataEventConstants.EVENT_TYPE_UNINSTALLED;
+import static fr.g123k.deviceapps.utils.AppDataEventConstants.EVENT_TYPE_UPDATED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AppsChangesBatcherTest {
+
+    @Test
+    public void firstEventIsKept() {
+        assertEquals(EVENT_TYPE_INSTALLED, collapse(null, EVENT_TYPE_INSTALLED));
+        assertEquals(EVENT_TYPE_CHANGED, collapse(null, EVENT_TYPE_CHANGED));
+    }
+
+    @Test
+    public void installedThenUninstalledCancelEachOther() {
+        assertNull(collapse(EVENT_TYPE_INSTALLED, EVENT_TYPE_UNINSTALLED));
+    }
+
+    @Test
+    public void uninstalledThenInstalledIsAnUpdate() {
+        assertEquals(EVENT_TYPE_UPDATED, collapse(EVENT_TYPE_UNINSTALLED, EVENT_TYPE_INSTALLED));
+    }
+
+    @Test
+    public void installedAbsorbsUpdatesAndChanges() {
+        assertEquals(EVENT_TYPE_INSTALLED, collapse(EVENT_TYPE_INSTALLED, EVENT_TYPE_UPDATED));
+        assertEquals(EVENT_TYPE_INSTALLED, collapse(EVENT_TYPE_INSTALLED, EVENT_TYPE_CHANGED));
+    }
+
+    @Test
+    public void updatedAbsorbsChanges() {
+        assertEquals(EVENT_TYPE_UPDATED, collapse(EVENT_TYPE_UPDATED, EVENT_TYPE_CHANGED));
+        assertEquals(EVENT_TYPE_UPDATED, collapse(EVENT_TYPE_CHANGED, EVENT_TYPE_UPDATED));
+    }
+
+    @Test
+    public void lastEventWinsOtherwise() {
+        assertEquals(EVENT_TYPE_UNINSTALLED, collapse(EVENT_TYPE_UPDATED, EVENT_TYPE_UNINSTALLED));
+        assertEquals(EVENT_TYPE_UNINSTALLED, collapse(EVENT_TYPE_CHANGED, EVENT_TYPE_UNINSTALLED));
+        assertEquals(EVENT_TYPE_INSTALLED, collapse(EVENT_TYPE_CHANGED, EVENT_TYPE_INSTALLED));
+    }
+
+}
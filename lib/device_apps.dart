@@ -1,3 +1,6 @@
 export 'src/model/application_category.dart';
 export 'src/model/application_event.dart';
+export 'src/model/application_field.dart';
+export 'src/model/application_icon.dart';
+export 'src/model/application_query.dart';
 export 'src/plugin.dart';
@@ -0,0 +1,51 @@
+/// Fields of an [Application] that can be requested.
+/// The package name is always sent.
+/// Fields which are not requested will have a default value (empty string,
+/// 0, false or [ApplicationCategory.undefined])
+enum ApplicationField {
+  /// The label of the app, which is the slowest field to load
+  appName,
+  apkFilePath,
+  versionName,
+  versionCode,
+  dataDir,
+  systemApp,
+  installTime,
+  updateTime,
+  enabled,
+  category,
+  forWorkProfile,
+  profileId,
+}
+
+extension ApplicationFieldKey on ApplicationField {
+  /// Key of the field, as sent by the plugin
+  String get key {
+    switch (this) {
+      case ApplicationField.appName:
+        return 'app_name';
+      case ApplicationField.apkFilePath:
+        return 'apk_file_path';
+      case ApplicationField.versionName:
+        return 'version_name';
+      case ApplicationField.versionCode:
+        return 'version_code';
+      case ApplicationField.dataDir:
+        return 'data_dir';
+      case ApplicationField.systemApp:
+        return 'system_app';
+      case ApplicationField.installTime:
+        return 'install_time';
+      case ApplicationField.updateTime:
+        return 'update_time';
+      case ApplicationField.enabled:
+        return 'is_enabled';
+      case ApplicationField.category:
+        return 'category';
+      case ApplicationField.forWorkProfile:
+        return 'for_work_profile';
+      case ApplicationField.profileId:
+        return 'profile_id';
+    }
+  }
+}
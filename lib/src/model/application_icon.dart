@@ -0,0 +1,112 @@
+import 'dart:typed_data';
+
+/// Format of the icon bytes returned by the plugin
+enum ApplicationIconFormat {
+  // PNG image (lossless)
+  png,
+
+  // WEBP image with a lossy compression (see [ApplicationIconOptions.quality])
+  webpLossy,
+
+  // WEBP image with a lossless compression
+  webpLossless,
+
+  // Uncompressed RGBA pixels (4 bytes per pixel), which is the cheapest to
+  // produce, but can't be used directly with [Image.memory]
+  rawRgba,
+}
+
+/// Options to render and encode the icon of applications
+class ApplicationIconOptions {
+  /// Biggest side of the icon in pixels (the aspect ratio is kept).
+  /// If null, the intrinsic size of the icon is used
+  final int? size;
+
+  final ApplicationIconFormat format;
+
+  /// Quality between 0 and 100, only used by [ApplicationIconFormat.webpLossy]
+  final int quality;
+
+  /// Instead of the bytes, receive the path of the icon, stored in a cache on
+  /// the disk. Use [Image.file] to display it.
+  /// Not supported by [ApplicationIconFormat.rawRgba]
+  final bool asFile;
+
+  const ApplicationIconOptions({
+    this.size,
+    this.format = ApplicationIconFormat.png,
+    this.quality = 100,
+    this.asFile = false,
+  })  : assert(size == null || size > 0),
+        assert(quality >= 0 && quality <= 100);
+
+  Map<String, Object?> toArguments() {
+    return <String, Object?>{
+      'icon_size': size,
+      'icon_format': _formatName(format),
+      'icon_quality': quality,
+      'icon_as_file': asFile,
+    };
+  }
+
+  static String _formatName(ApplicationIconFormat format) {
+    switch (format) {
+      case ApplicationIconFormat.png:
+        return 'png';
+      case ApplicationIconFormat.webpLossy:
+        return 'webp_lossy';
+      case ApplicationIconFormat.webpLossless:
+        return 'webp_lossless';
+      case ApplicationIconFormat.rawRgba:
+        return 'raw_rgba';
+    }
+  }
+
+  static ApplicationIconFormat parseFormat(Object? format) {
+    switch (format) {
+      case 'webp_lossy':
+        return ApplicationIconFormat.webpLossy;
+      case 'webp_lossless':
+        return ApplicationIconFormat.webpLossless;
+      case 'raw_rgba':
+        return ApplicationIconFormat.rawRgba;
+      default:
+        return ApplicationIconFormat.png;
+    }
+  }
+}
+
+/// Icon of an application, returned by [DeviceApps.getAppIcons]
+class ApplicationIcon {
+  /// Bytes of the icon (null if [ApplicationIconOptions.asFile] was used)
+  final Uint8List? bytes;
+
+  /// Path of the icon in the disk cache (only if
+  /// [ApplicationIconOptions.asFile] was used)
+  final String? path;
+
+  final ApplicationIconFormat format;
+
+  /// Width of the icon in pixels
+  final int? width;
+
+  /// Height of the icon in pixels
+  final int? height;
+
+  ApplicationIcon.fromMap(Map<dynamic, dynamic> map)
+      : bytes = map['app_icon'] as Uint8List?,
+        path = map['app_icon_path'] as String?,
+        format = ApplicationIconOptions.parseFormat(map['app_icon_format']),
+        width = map['app_icon_width'] as int?,
+        height = map['app_icon_height'] as int?;
+
+  @override
+  String toString() {
+    return 'ApplicationIcon{'
+        'path: $path, '
+        'format: $format, '
+        'width: $width, '
+        'height: $height'
+        '}';
+  }
+}
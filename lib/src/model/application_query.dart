@@ -0,0 +1,45 @@
+/// How the text of a query is matched against the name and the package name
+/// of apps (case and accents are ignored)
+enum ApplicationQueryMatch {
+  /// The name (or one of its words) or the package name starts with the text
+  prefix,
+
+  /// The name or the package name contains the text
+  contains,
+}
+
+/// Order of the apps returned by a query
+enum ApplicationSort {
+  appName,
+  packageName,
+  installTime,
+  updateTime,
+}
+
+extension ApplicationQueryMatchKey on ApplicationQueryMatch {
+  /// Key of the match, as expected by the plugin
+  String get key {
+    switch (this) {
+      case ApplicationQueryMatch.prefix:
+        return 'prefix';
+      case ApplicationQueryMatch.contains:
+        return 'contains';
+    }
+  }
+}
+
+extension ApplicationSortKey on ApplicationSort {
+  /// Key of the sort, as expected by the plugin
+  String get key {
+    switch (this) {
+      case ApplicationSort.appName:
+        return 'label';
+      case ApplicationSort.packageName:
+        return 'package_name';
+      case ApplicationSort.installTime:
+        return 'install_time';
+      case ApplicationSort.updateTime:
+        return 'update_time';
+    }
+  }
+}
@@ -1,11 +1,16 @@
 import 'dart:async';
 import 'dart:convert';
+import 'dart:io';
 
+import 'package:flutter/foundation.dart';
 import 'package:flutter/cupertino.dart';
 import 'package:flutter/services.dart';
 
 import 'model/application_category.dart';
 import 'model/application_event.dart';
+import 'model/application_field.dart';
+import 'model/application_icon.dart';
+import 'model/application_query.dart';
 
 /// Plugin to list applications installed on an Android device
 /// iOS is not supported
@@ -14,6 +19,18 @@ class DeviceApps {
       MethodChannel('g123k/device_apps');
   static const EventChannel _eventChannel =
       EventChannel('g123k/device_apps_events');
+  static const EventChannel _batchedEventChannel =
+      EventChannel('g123k/device_apps_batched_events');
+  static const BasicMessageChannel<Object?> _compactChannel =
+      BasicMessageChannel<Object?>(
+          'g123k/device_apps_compact', _CompactAppsCodec());
+
+  static final Map<int, Completer<Object?>> _pendingRevalidations =
+      <int, Completer<Object?>>{};
+  // The revalidation may enumerate all the apps again
+  static const Duration _revalidationTimeout = Duration(minutes: 2);
+  static int _nextRequestId = 0;
+  static bool _methodCallHandlerSet = false;
 
   /// List installed applications on the device
   /// [includeSystemApps] will also include system apps (or pre-installed) like
@@ -21,40 +38,41 @@ class DeviceApps {
   /// [includeAppIcons] will also include the icon for each app (be aware that
   /// this feature is memory-heaving, since it will load all icons).
   /// To get the icon you have to cast the object to [ApplicationWithIcon]
+  /// [iconOptions] allows to change the size and the format of icons
   /// [onlyAppsWithLaunchIntent] will only list applications when an entrypoint.
   /// It is similar to what a launcher will display
+  /// [parallel] will load labels and icons on a pool of workers (one per CPU
+  /// core), which is faster on large lists. The order of the list is the same
+  /// [fields] restricts the fields to load and send (all if null), which makes
+  /// the call cheaper (eg: without [ApplicationField.appName])
+  /// [cancellationHandle] allows to cancel the call (an empty list is then
+  /// returned)
+  /// [compactEncoding] sends the list in a compact binary format (one column
+  /// per field, each string being sent once), which is smaller and faster to
+  /// decode on large lists
   static Future<List<Application>> getMainProfileInstalledApps({
     bool includeSystemApps: false,
     bool includeAppIcons: false,
+    ApplicationIconOptions iconOptions: const ApplicationIconOptions(),
     bool onlyAppsWithLaunchIntent: false,
+    bool parallel: false,
+    Set<ApplicationField>? fields,
+    CancellationHandle? cancellationHandle,
+    bool compactEncoding: false,
   }) async {
     try {
-      final Object apps = await _methodChannel
-          .invokeMethod('getMainProfileInstalledApps', <String, bool>{
+      final Object? apps = await _invokeListMethod(
+          'getMainProfileInstalledApps', compactEncoding, <String, Object?>{
         'system_apps': includeSystemApps,
         'include_app_icons': includeAppIcons,
-        'only_apps_with_launch_intent': onlyAppsWithLaunchIntent
+        ...iconOptions.toArguments(),
+        'only_apps_with_launch_intent': onlyAppsWithLaunchIntent,
+        'parallel': parallel,
+        'fields': _fieldKeys(fields),
+        'request_id': cancellationHandle?._requestId,
       });
 
-      if (apps is Iterable) {
-        List<Application> list = <Application>[];
-        for (Object app in apps) {
-          if (app is Map) {
-            try {
-              list.add(Application._(app));
-            } catch (e, trace) {
-              if (e is AssertionError) {
-                print('[DeviceApps] Unable to add the following app: $app');
-              } else {
-                print('[DeviceApps] $e $trace');
-              }
-            }
-          }
-        }
-        return list;
-      } else {
-        return List<Application>.empty();
-      }
+      return _parseApps(apps);
     } catch (err) {
       print(err);
       return List<Application>.empty();
@@ -64,56 +82,449 @@ class DeviceApps {
   static Future<List<Application>> getWorkProfileInstalledApps({
     bool includeSystemApps: false,
     bool includeAppIcons: false,
+    ApplicationIconOptions iconOptions: const ApplicationIconOptions(),
     bool onlyAppsWithLaunchIntent: false,
+    bool parallel: false,
+    Set<ApplicationField>? fields,
+    CancellationHandle? cancellationHandle,
+    bool compactEncoding: false,
+  }) async {
+    try {
+      final Object? apps = await _invokeListMethod(
+          'getWorkProfileInstalledApps', compactEncoding, <String, Object?>{
+        'system_apps': includeSystemApps,
+        'include_app_icons': includeAppIcons,
+        ...iconOptions.toArguments(),
+        'only_apps_with_launch_intent': onlyAppsWithLaunchIntent,
+        'parallel': parallel,
+        'fields': _fieldKeys(fields),
+        'request_id': cancellationHandle?._requestId,
+      });
+
+      return _parseApps(apps);
+    } catch (err) {
+      print(err);
+      return List<Application>.empty();
+    }
+  }
+
+  /// Ids of the profiles of the user (eg: main, work…), the main profile
+  /// being the first one. Ids are stable, even after a reboot
+  static Future<List<int>> getProfiles() async {
+    try {
+      final List<dynamic>? profiles =
+          await _methodChannel.invokeMethod<List<dynamic>>('getProfiles');
+      return profiles?.cast<int>() ?? <int>[];
+    } catch (err) {
+      print(err);
+      return <int>[];
+    }
+  }
+
+  /// Installed apps of the given [profiles] (ids from [getProfiles]), or of
+  /// all profiles if null. Profiles are loaded concurrently and their apps
+  /// are merged in a single list (see [Application.profileId]).
+  /// Other attributes are the same as [getMainProfileInstalledApps]
+  static Future<List<Application>> getInstalledApps({
+    List<int>? profiles,
+    bool includeSystemApps: false,
+    bool includeAppIcons: false,
+    ApplicationIconOptions iconOptions: const ApplicationIconOptions(),
+    bool parallel: false,
+    Set<ApplicationField>? fields,
+    CancellationHandle? cancellationHandle,
+    bool compactEncoding: false,
+  }) async {
+    try {
+      final Object? apps = await _invokeListMethod(
+          'getInstalledApps', compactEncoding, <String, Object?>{
+        'profiles': profiles ?? 'all',
+        'system_apps': includeSystemApps,
+        'include_app_icons': includeAppIcons,
+        ...iconOptions.toArguments(),
+        'parallel': parallel,
+        'fields': _fieldKeys(fields),
+        'request_id': cancellationHandle?._requestId,
+      });
+
+      return _parseApps(apps);
+    } catch (err) {
+      print(err);
+      return List<Application>.empty();
+    }
+  }
+
+  /// The [count] apps of the main profile the most used during the last
+  /// [window] (time spent in the foreground), the most used first. Unused
+  /// apps are not returned. [count] and [window] must be positive. The usage
+  /// is read once and cached for a few seconds, and only these apps are sent.
+  /// Requires Android 5.1+ and the `PACKAGE_USAGE_STATS` permission (granted
+  /// by the user in the settings), the list is empty otherwise.
+  /// Other attributes are the same as [getMainProfileInstalledApps]
+  static Future<List<Application>> getTopApps(
+    int count,
+    Duration window, {
+    bool includeSystemApps: false,
+    bool includeAppIcons: false,
+    ApplicationIconOptions iconOptions: const ApplicationIconOptions(),
+    Set<ApplicationField>? fields,
+    CancellationHandle? cancellationHandle,
+  }) async {
+    try {
+      final Object? apps =
+          await _methodChannel.invokeMethod('getTopApps', <String, Object?>{
+        'count': count,
+        'window_ms': window.inMilliseconds,
+        'system_apps': includeSystemApps,
+        'include_app_icons': includeAppIcons,
+        ...iconOptions.toArguments(),
+        'fields': _fieldKeys(fields),
+        'request_id': cancellationHandle?._requestId,
+      });
+
+      return _parseApps(apps);
+    } catch (err) {
+      print(err);
+      return List<Application>.empty();
+    }
+  }
+
+  /// Searches apps by their name or package name with [query] (all apps if
+  /// null), filtered by [category] and [enabled] (if not null).
+  /// Apps are sorted by [sort], then only [limit] apps (all if null) after
+  /// [offset] are sent: the search is made natively, on an index built once.
+  /// [ApplicationQueryResult.total] is the number of matching apps
+  /// Other attributes are the same as [getMainProfileInstalledApps]
+  static Future<ApplicationQueryResult> queryApps({
+    String? query,
+    ApplicationQueryMatch match: ApplicationQueryMatch.contains,
+    ApplicationCategory? category,
+    bool includeSystemApps: false,
+    bool? enabled,
+    ApplicationSort sort: ApplicationSort.appName,
+    bool descending: false,
+    int offset: 0,
+    int? limit,
+    bool forWorkProfile: false,
+    bool includeAppIcons: false,
+    ApplicationIconOptions iconOptions: const ApplicationIconOptions(),
+    bool parallel: false,
+    Set<ApplicationField>? fields,
+    CancellationHandle? cancellationHandle,
   }) async {
     try {
-      final Object apps = await _methodChannel
-          .invokeMethod('getWorkProfileInstalledApps', <String, bool>{
+      final Object? result =
+          await _methodChannel.invokeMethod('queryApps', <String, Object?>{
+        'query': query,
+        'match': match.key,
+        'category': category != null ? _categoryId(category) : null,
         'system_apps': includeSystemApps,
+        'enabled': enabled,
+        'sort': sort.key,
+        'descending': descending,
+        'offset': offset,
+        'limit': limit,
+        'for_work_profile': forWorkProfile,
         'include_app_icons': includeAppIcons,
-        'only_apps_with_launch_intent': onlyAppsWithLaunchIntent
+        ...iconOptions.toArguments(),
+        'parallel': parallel,
+        'fields': _fieldKeys(fields),
+        'request_id': cancellationHandle?._requestId,
+      });
+
+      if (result is Map) {
+        return ApplicationQueryResult._fromMap(result);
+      }
+    } catch (err) {
+      print(err);
+    }
+    return ApplicationQueryResult._empty();
+  }
+
+  /// Reverse mapping of [Application._parseCategory]
+  static int _categoryId(ApplicationCategory category) {
+    switch (category) {
+      case ApplicationCategory.game:
+        return 0;
+      case ApplicationCategory.audio:
+        return 1;
+      case ApplicationCategory.video:
+        return 2;
+      case ApplicationCategory.image:
+        return 3;
+      case ApplicationCategory.social:
+        return 4;
+      case ApplicationCategory.news:
+        return 5;
+      case ApplicationCategory.maps:
+        return 6;
+      case ApplicationCategory.productivity:
+        return 7;
+      case ApplicationCategory.undefined:
+        return -1;
+    }
+  }
+
+  /// Same as [getMainProfileInstalledApps], but apps are sent by pages of
+  /// [pageSize] apps. Each page is only loaded once the previous one has been
+  /// received, so the first apps can be displayed while the others are loaded
+  static Stream<List<Application>> streamMainProfileInstalledApps({
+    bool includeSystemApps: false,
+    bool includeAppIcons: false,
+    ApplicationIconOptions iconOptions: const ApplicationIconOptions(),
+    bool onlyAppsWithLaunchIntent: false,
+    bool parallel: false,
+    Set<ApplicationField>? fields,
+    int pageSize: 50,
+    CancellationHandle? cancellationHandle,
+  }) {
+    return _streamInstalledApps(
+      forWorkProfile: false,
+      includeSystemApps: includeSystemApps,
+      includeAppIcons: includeAppIcons,
+      iconOptions: iconOptions,
+      onlyAppsWithLaunchIntent: onlyAppsWithLaunchIntent,
+      parallel: parallel,
+      fields: fields,
+      pageSize: pageSize,
+      cancellationHandle: cancellationHandle,
+    );
+  }
+
+  /// Same as [getWorkProfileInstalledApps], but apps are sent by pages of
+  /// [pageSize] apps (see [streamMainProfileInstalledApps])
+  static Stream<List<Application>> streamWorkProfileInstalledApps({
+    bool includeSystemApps: false,
+    bool includeAppIcons: false,
+    ApplicationIconOptions iconOptions: const ApplicationIconOptions(),
+    bool onlyAppsWithLaunchIntent: false,
+    bool parallel: false,
+    Set<ApplicationField>? fields,
+    int pageSize: 50,
+    CancellationHandle? cancellationHandle,
+  }) {
+    return _streamInstalledApps(
+      forWorkProfile: true,
+      includeSystemApps: includeSystemApps,
+      includeAppIcons: includeAppIcons,
+      iconOptions: iconOptions,
+      onlyAppsWithLaunchIntent: onlyAppsWithLaunchIntent,
+      parallel: parallel,
+      fields: fields,
+      pageSize: pageSize,
+      cancellationHandle: cancellationHandle,
+    );
+  }
+
+  /// Stale-while-revalidate version of [getMainProfileInstalledApps] (without
+  /// icons): the apps persisted by a previous call are sent immediately (even
+  /// after a restart of the app), then checked in the background. If they
+  /// have changed, the up to date list is sent as a second item.
+  /// The first call (without any persisted apps) sends the current apps only.
+  /// Persisted apps are checked with the package change sequence number on
+  /// Android 8.0+, otherwise all the apps have to be enumerated again
+  static Stream<List<Application>> streamMainProfileInstalledAppsFromSnapshot({
+    bool includeSystemApps: false,
+    Set<ApplicationField>? fields,
+  }) async* {
+    _ensureMethodCallHandler();
+
+    final int requestId = _nextRequestId++;
+    final Completer<Object?> revalidation = Completer<Object?>();
+    _pendingRevalidations[requestId] = revalidation;
+
+    try {
+      final Object? result;
+      try {
+        result = await _methodChannel
+            .invokeMethod('getInstalledAppsSnapshot', <String, Object?>{
+          'system_apps': includeSystemApps,
+          'fields': _fieldKeys(fields),
+          'request_id': requestId,
+        });
+      } catch (err) {
+        print(err);
+        return;
+      }
+
+      if (result is! Map) {
+        return;
+      }
+
+      yield _parseApps(result['apps']);
+
+      if (result['revalidating'] == true) {
+        final Object? correctedApps;
+        try {
+          correctedApps =
+              await revalidation.future.timeout(_revalidationTimeout);
+        } catch (err) {
+          // The persisted apps are kept
+          print(err);
+          return;
+        }
+
+        if (correctedApps != null) {
+          yield _parseApps(correctedApps);
+        }
+      }
+    } finally {
+      _pendingRevalidations.remove(requestId);
+    }
+  }
+
+  /// Calls sent by the native side
+  static void _ensureMethodCallHandler() {
+    if (_methodCallHandlerSet) {
+      return;
+    }
+
+    _methodCallHandlerSet = true;
+    _methodChannel.setMethodCallHandler((MethodCall call) async {
+      if (call.method == 'onInstalledAppsRevalidated') {
+        final Map<dynamic, dynamic> arguments =
+            call.arguments as Map<dynamic, dynamic>;
+        _pendingRevalidations
+            .remove(arguments['request_id'] as int)
+            ?.complete(arguments['apps']);
+      } else if (call.method == 'onDetached') {
+        // Pending revalidations will never be sent
+        final List<Completer<Object?>> revalidations =
+            _pendingRevalidations.values.toList();
+        _pendingRevalidations.clear();
+        for (final Completer<Object?> revalidation in revalidations) {
+          revalidation.completeError(PlatformException(
+            code: 'CANCELLED',
+            message: 'The plugin has been detached',
+          ));
+        }
+      }
+    });
+  }
+
+  static Stream<List<Application>> _streamInstalledApps({
+    required bool forWorkProfile,
+    required bool includeSystemApps,
+    required bool includeAppIcons,
+    required ApplicationIconOptions iconOptions,
+    required bool onlyAppsWithLaunchIntent,
+    required bool parallel,
+    required Set<ApplicationField>? fields,
+    required int pageSize,
+    required CancellationHandle? cancellationHandle,
+  }) async* {
+    if (pageSize <= 0) {
+      throw Exception('The page size must be greater than 0');
+    }
+
+    String? pageToken;
+    do {
+      final Object? page;
+      try {
+        page = await _methodChannel
+            .invokeMethod('getInstalledAppsPage', <String, Object?>{
+          'for_work_profile': forWorkProfile,
+          'system_apps': includeSystemApps,
+          'include_app_icons': includeAppIcons,
+          ...iconOptions.toArguments(),
+          'only_apps_with_launch_intent': onlyAppsWithLaunchIntent,
+          'parallel': parallel,
+          'fields': _fieldKeys(fields),
+          'page_token': pageToken,
+          'page_size': pageSize,
+          'request_id': cancellationHandle?._requestId,
+        });
+      } catch (err) {
+        print(err);
+        return;
+      }
+
+      if (page is! Map) {
+        return;
+      }
+
+      yield _parseApps(page['apps']);
+      pageToken = page['next_page_token'] as String?;
+    } while (pageToken != null && cancellationHandle?.isCancelled != true);
+  }
+
+  static List<String>? _fieldKeys(Set<ApplicationField>? fields) {
+    return fields?.map((ApplicationField field) => field.key).toList();
+  }
+
+  /// Lists sent on the compact channel are already decoded by
+  /// [_CompactAppsCodec]
+  static Future<Object?> _invokeListMethod(
+      String method, bool compactEncoding, Map<String, Object?> arguments) {
+    if (compactEncoding) {
+      return _compactChannel.send(<String, Object?>{
+        'method': method,
+        'arguments': arguments,
       });
+    }
+    return _methodChannel.invokeMethod<Object>(method, arguments);
+  }
 
-      if (apps is Iterable) {
-        List<Application> list = <Application>[];
-        for (Object app in apps) {
-          if (app is Map) {
-            try {
-              list.add(Application._(app));
-            } catch (e, trace) {
-              if (e is AssertionError) {
-                print('[DeviceApps] Unable to add the following app: $app');
-              } else {
-                print('[DeviceApps] $e $trace');
-              }
+  static List<Application> _parseApps(Object? apps) {
+    if (apps is List<Application>) {
+      return apps;
+    } else if (apps is Iterable) {
+      final List<Object?> maps = apps.toList(growable: false);
+      List<Application> list = <Application>[];
+      for (Object? app in maps) {
+        if (app is Map) {
+          try {
+            list.add(Application._(_resolveIconRef(app, maps)));
+          } catch (e, trace) {
+            if (e is AssertionError) {
+              print('[DeviceApps] Unable to add the following app: $app');
+            } else {
+              print('[DeviceApps] $e $trace');
             }
           }
         }
-        return list;
-      } else {
-        return List<Application>.empty();
       }
-    } catch (err) {
-      print(err);
+      return list;
+    } else {
       return List<Application>.empty();
     }
   }
 
+  /// An icon identical to the icon of a previous app of the list is only
+  /// sent once: the next apps reference this app (the [Uint8List] is shared)
+  static Map<dynamic, dynamic> _resolveIconRef(
+      Map<dynamic, dynamic> app, List<Object?> apps) {
+    final Object? ref = app['app_icon_ref'];
+    if (ref is! int) {
+      return app;
+    }
+
+    return Map<dynamic, dynamic>.of(app)
+      ..remove('app_icon_ref')
+      ..['app_icon'] = (apps[ref] as Map<dynamic, dynamic>)['app_icon'];
+  }
+
   /// Provide all information for a given app by its [packageName]
   /// [includeAppIcon] will also include the icon for the app.
   /// To get it, you have to cast the object to [ApplicationWithIcon].
+  /// [iconOptions] allows to change the size and the format of the icon
+  /// [fields] restricts the fields to load and send (all if null)
   static Future<Application?> getApp(
     String packageName, [
     bool includeAppIcon = false,
+    ApplicationIconOptions iconOptions = const ApplicationIconOptions(),
+    Set<ApplicationField>? fields,
   ]) async {
     if (packageName.isEmpty) {
       throw Exception('The package name can not be empty');
     }
     try {
       final Object? app = await _methodChannel.invokeMethod(
-          'getApp', <String, Object>{
+          'getApp', <String, Object?>{
         'package_name': packageName,
-        'include_app_icon': includeAppIcon
+        'include_app_icon': includeAppIcon,
+        ...iconOptions.toArguments(),
+        'fields': _fieldKeys(fields),
       });
 
       if (app != null && app is Map<dynamic, dynamic>) {
@@ -127,6 +538,114 @@ class DeviceApps {
     }
   }
 
+  /// Same as [getApp], for many apps in a single call.
+  /// The result is indexed by package name (unknown packages are ignored)
+  static Future<Map<String, Application>> getApps(
+    List<String> packageNames, {
+    bool includeAppIcons: false,
+    ApplicationIconOptions iconOptions: const ApplicationIconOptions(),
+    Set<ApplicationField>? fields,
+  }) async {
+    if (packageNames.isEmpty) {
+      return <String, Application>{};
+    }
+
+    try {
+      final Object? apps =
+          await _methodChannel.invokeMethod('getApps', <String, Object?>{
+        'package_names': packageNames,
+        'include_app_icons': includeAppIcons,
+        ...iconOptions.toArguments(),
+        'fields': _fieldKeys(fields),
+      });
+
+      final Map<String, Application> result = <String, Application>{};
+      if (apps is Map) {
+        apps.forEach((dynamic packageName, dynamic app) {
+          if (packageName is String && app is Map) {
+            result[packageName] = Application._(app);
+          }
+        });
+      }
+      return result;
+    } catch (err) {
+      print(err);
+      return <String, Application>{};
+    }
+  }
+
+  /// Only load the icons of the given [packageNames] (eg: the apps visible on
+  /// the screen), in a single background batch.
+  /// The result is indexed by package name (unknown packages are ignored)
+  static Future<Map<String, ApplicationIcon>> getAppIcons(
+    List<String> packageNames, {
+    bool forWorkProfile: false,
+    ApplicationIconOptions iconOptions: const ApplicationIconOptions(),
+    bool parallel: false,
+  }) async {
+    if (packageNames.isEmpty) {
+      return <String, ApplicationIcon>{};
+    }
+
+    try {
+      final Object? icons = await _methodChannel
+          .invokeMethod('getAppIcons', <String, Object?>{
+        'package_names': packageNames,
+        'for_work_profile': forWorkProfile,
+        ...iconOptions.toArguments(),
+        'parallel': parallel,
+      });
+
+      final Map<String, ApplicationIcon> result = <String, ApplicationIcon>{};
+      if (icons is Map) {
+        icons.forEach((dynamic packageName, dynamic icon) {
+          if (packageName is String && icon is Map) {
+            result[packageName] = ApplicationIcon.fromMap(icon);
+          }
+        });
+      }
+      return result;
+    } catch (err) {
+      print(err);
+      return <String, ApplicationIcon>{};
+    }
+  }
+
+  /// Returns the apps of the main profile added, updated or removed since
+  /// [token] (a token returned by a previous call).
+  /// If [token] is null or can't be used anymore (eg: after a reboot),
+  /// [ApplicationChanges.reset] is true and all the apps are sent in
+  /// [ApplicationChanges.added]: the previous list has to be replaced.
+  /// On Android 11+, an app which can't be found anymore may only be hidden by
+  /// the package visibility: it is not reported in
+  /// [ApplicationChanges.removed] (use [listenToAppsChanges] to be notified of
+  /// uninstalled apps).
+  /// Other attributes are the same as [getMainProfileInstalledApps]
+  static Future<ApplicationChanges> getChangesSince(
+    String? token, {
+    bool includeSystemApps: false,
+    bool includeAppIcons: false,
+    ApplicationIconOptions iconOptions: const ApplicationIconOptions(),
+    bool parallel: false,
+    Set<ApplicationField>? fields,
+  }) async {
+    final Object? changes =
+        await _methodChannel.invokeMethod('getChangesSince', <String, Object?>{
+      'token': token,
+      'system_apps': includeSystemApps,
+      'include_app_icons': includeAppIcons,
+      ...iconOptions.toArguments(),
+      'parallel': parallel,
+      'fields': _fieldKeys(fields),
+    });
+
+    if (changes is! Map) {
+      throw Exception('Unable to retrieve the changes');
+    }
+
+    return ApplicationChanges._fromMap(changes);
+  }
+
   /// Returns whether a given [packageName] is installed on the device
   /// You will then receive in return a boolean
   static Future<bool> isAppInstalled(String packageName) {
@@ -145,6 +664,38 @@ class DeviceApps {
         .catchError((dynamic err) => false);
   }
 
+  /// Same as [isAppInstalled], for many apps in a single call.
+  /// The result is indexed by package name
+  static Future<Map<String, bool>> areAppsInstalled(
+      List<String> packageNames) async {
+    final Map<String, bool> result = <String, bool>{
+      for (String packageName in packageNames) packageName: false,
+    };
+
+    if (packageNames.isEmpty) {
+      return result;
+    }
+
+    try {
+      final Map<dynamic, dynamic>? installed = await _methodChannel
+          .invokeMethod<Map<dynamic, dynamic>>(
+        'areAppsInstalled',
+        <String, Object>{
+          'package_names': packageNames,
+        },
+      );
+
+      installed?.forEach((dynamic packageName, dynamic value) {
+        if (packageName is String && value is bool) {
+          result[packageName] = value;
+        }
+      });
+    } catch (err) {
+      print(err);
+    }
+    return result;
+  }
+
   /// Launch an app based on its [packageName]
   /// You will then receive in return if the app was opened
   /// (will be false if the app is not installed, or if no "launcher" intent is
@@ -197,6 +748,16 @@ class DeviceApps {
         .catchError((dynamic err) => false);
   }
 
+  /// Stops the prewarm of the apps (enabled with the
+  /// `fr.g123k.deviceapps.PREWARM` meta-data in the AndroidManifest).
+  /// Returns false if there is no prewarm in progress
+  static Future<bool> cancelPrewarm() {
+    return _methodChannel
+        .invokeMethod<bool>('cancelPrewarm')
+        .then((bool? value) => value ?? false)
+        .catchError((dynamic err) => false);
+  }
+
   /// Listen to app changes: installations, uninstallations, updates, enabled or
   /// disabled. As it is a [Stream], don't hesite to filter data if the content
   /// is too verbose for you
@@ -207,6 +768,204 @@ class DeviceApps {
             ApplicationEvent._(event as Map<dynamic, dynamic>)))
         .handleError((Object err) => null);
   }
+
+  /// Performance metrics recorded since the last [resetMetrics]:
+  /// - `methods` / `stages`: latency histograms (`count`, `errors`,
+  ///   `total_ms`, `max_ms` and `buckets`, whose upper bounds are given by
+  ///   `bucket_bounds_ms`, the last bucket being unbounded)
+  /// - `main_thread`: time spent on the Android main thread per method (the
+  ///   work itself is made in the background)
+  /// - `binder_calls`: number of calls to system services
+  /// - `counters`: number of apps and icons processed, bitmaps allocated…
+  /// - `payload_bytes`: approximate size of the results sent per method
+  ///   (estimated in the background, never on the main thread)
+  static Future<Map<String, Object?>> getMetrics() async {
+    final Map<dynamic, dynamic>? metrics =
+        await _methodChannel.invokeMethod<Map<dynamic, dynamic>>('getMetrics');
+    return metrics?.cast<String, Object?>() ?? <String, Object?>{};
+  }
+
+  static Future<void> resetMetrics() {
+    return _methodChannel.invokeMethod<void>('resetMetrics');
+  }
+
+  /// Also sends the sections measured by [getMetrics] to `android.os.Trace`
+  /// (visible with Perfetto or systrace)
+  static Future<void> setMetricsTracing(bool enabled) {
+    return _methodChannel.invokeMethod<void>(
+        'setMetricsTracing', <String, bool>{'enabled': enabled});
+  }
+
+  /// Listen to app changes, grouped by [window]: events are sent together
+  /// once the window (started by the first event) is over.
+  /// Events of the same package are merged (eg: an app installed, then
+  /// updated will only send an [ApplicationEventInstalled] event)
+  static Stream<List<ApplicationEvent>> listenToAppsChangesBatched({
+    Duration window = const Duration(milliseconds: 500),
+  }) {
+    return _batchedEventChannel
+        .receiveBroadcastStream(<String, int>{
+          'window_ms': window.inMilliseconds,
+        })
+        .map(((dynamic events) => (events as List<dynamic>)
+            .map((dynamic event) =>
+                ApplicationEvent._(event as Map<dynamic, dynamic>))
+            .toList(growable: false)))
+        .handleError((Object err) => null);
+  }
+}
+
+/// Codec of the compact channel: requests are encoded with the standard codec,
+/// but lists of apps are received column by column (see CompactAppsCodec on
+/// the Android side) and decoded directly into [Application]s
+class _CompactAppsCodec implements MessageCodec<Object?> {
+  static const int _version = 1;
+  static const int _statusApps = 0;
+
+  static const int _typeBoolean = 0;
+  static const int _typeInt = 1;
+  static const int _typeLong = 2;
+  static const int _typeString = 3;
+  static const int _typePath = 4;
+  static const int _typeBytes = 5;
+
+  const _CompactAppsCodec();
+
+  @override
+  ByteData? encodeMessage(Object? message) {
+    return const StandardMessageCodec().encodeMessage(message);
+  }
+
+  @override
+  Object? decodeMessage(ByteData? message) {
+    if (message == null) {
+      return null;
+    }
+
+    final _CompactReader reader = _CompactReader(message);
+    final int version = reader.readUint8();
+    if (version != _version) {
+      throw PlatformException(
+          code: 'ERROR', message: 'Unsupported compact format: $version');
+    }
+
+    if (reader.readUint8() != _statusApps) {
+      throw PlatformException(
+          code: reader.readString(), message: reader.readString());
+    }
+
+    final int rowsCount = reader.readUint32();
+    final List<String> strings = List<String>.generate(
+        reader.readUint32(), (_) => reader.readString(),
+        growable: false);
+    final List<Map<String, Object?>> rows = List<Map<String, Object?>>.generate(
+        rowsCount, (_) => <String, Object?>{},
+        growable: false);
+
+    final int columnsCount = reader.readUint32();
+    for (int i = 0; i < columnsCount; i++) {
+      final String key = strings[reader.readUint32()];
+      final int type = reader.readUint8();
+      final Uint8List presence = reader.readBytes((rowsCount + 7) >> 3);
+      bool isPresent(int row) => presence[row >> 3] & (1 << (row & 7)) != 0;
+
+      switch (type) {
+        case _typeBoolean:
+          final Uint8List bits = reader.readBytes(presence.length);
+          for (int row = 0; row < rowsCount; row++) {
+            if (isPresent(row)) {
+              rows[row][key] = bits[row >> 3] & (1 << (row & 7)) != 0;
+            }
+          }
+          break;
+        case _typeInt:
+          for (int row = 0; row < rowsCount; row++) {
+            if (isPresent(row)) {
+              rows[row][key] = reader.readInt32();
+            }
+          }
+          break;
+        case _typeLong:
+          for (int row = 0; row < rowsCount; row++) {
+            if (isPresent(row)) {
+              rows[row][key] = reader.readInt64();
+            }
+          }
+          break;
+        case _typeString:
+          for (int row = 0; row < rowsCount; row++) {
+            if (isPresent(row)) {
+              rows[row][key] = strings[reader.readUint32()];
+            }
+          }
+          break;
+        case _typePath:
+          for (int row = 0; row < rowsCount; row++) {
+            if (isPresent(row)) {
+              final String prefix = strings[reader.readUint32()];
+              rows[row][key] = prefix + strings[reader.readUint32()];
+            }
+          }
+          break;
+        case _typeBytes:
+          final List<int> lengths = <int>[];
+          for (int row = 0; row < rowsCount; row++) {
+            if (isPresent(row)) {
+              lengths.add(reader.readUint32());
+            }
+          }
+          int blob = 0;
+          for (int row = 0; row < rowsCount; row++) {
+            if (isPresent(row)) {
+              rows[row][key] = reader.readBytes(lengths[blob++]);
+            }
+          }
+          break;
+        default:
+          throw PlatformException(
+              code: 'ERROR', message: 'Unknown compact column type: $type');
+      }
+    }
+
+    return DeviceApps._parseApps(rows);
+  }
+}
+
+/// Big-endian reader, bytes being views of the message (not copies)
+class _CompactReader {
+  final ByteData _data;
+  int _offset = 0;
+
+  _CompactReader(this._data);
+
+  int readUint8() => _data.getUint8(_offset++);
+
+  int readUint32() {
+    final int value = _data.getUint32(_offset);
+    _offset += 4;
+    return value;
+  }
+
+  int readInt32() {
+    final int value = _data.getInt32(_offset);
+    _offset += 4;
+    return value;
+  }
+
+  int readInt64() {
+    final int value = _data.getInt64(_offset);
+    _offset += 8;
+    return value;
+  }
+
+  Uint8List readBytes(int length) {
+    final Uint8List bytes =
+        _data.buffer.asUint8List(_data.offsetInBytes + _offset, length);
+    _offset += length;
+    return bytes;
+  }
+
+  String readString() => utf8.decode(readBytes(readUint32()));
 }
 
 /// The Base class to reprend an application (= a package name)
@@ -259,29 +1018,36 @@ class Application extends _BaseApplication {
 
   final bool forWorkProfile;
 
+  /// Stable id of the profile of the app (see [DeviceApps.getProfiles])
+  final int? profileId;
+
   factory Application._(Map<dynamic, dynamic> map) {
     if (map.length == 0) {
       throw Exception('The map can not be null!');
     }
     if (map.containsKey('app_icon')) {
       return ApplicationWithIcon._fromMap(map);
+    } else if (map.containsKey('app_icon_path')) {
+      return ApplicationWithIconFile._fromMap(map);
     } else {
       return Application._fromMap(map);
     }
   }
 
+  /// Fields may be missing if they were not requested (see [ApplicationField])
   Application._fromMap(Map<dynamic, dynamic> map)
-      : appName = map['app_name'] as String,
-        apkFilePath = map['apk_file_path'] as String,
+      : appName = map['app_name'] as String? ?? '',
+        apkFilePath = map['apk_file_path'] as String? ?? '',
         versionName = map['version_name'] as String?,
-        versionCode = map['version_code'] as int,
-        dataDir = map['data_dir'] as String,
-        systemApp = map['system_app'] as bool,
-        installTimeMillis = map['install_time'] as int,
-        updateTimeMillis = map['update_time'] as int,
-        enabled = map['is_enabled'] as bool,
+        versionCode = map['version_code'] as int? ?? 0,
+        dataDir = map['data_dir'] as String?,
+        systemApp = map['system_app'] as bool? ?? false,
+        installTimeMillis = map['install_time'] as int? ?? 0,
+        updateTimeMillis = map['update_time'] as int? ?? 0,
+        enabled = map['is_enabled'] as bool? ?? false,
         category = _parseCategory(map['category']),
-        forWorkProfile = map['for_work_profile'] as bool,
+        forWorkProfile = map['for_work_profile'] as bool? ?? false,
+        profileId = map['profile_id'] as int?,
         super._fromMap(map);
 
   /// Mapping of Android categories
@@ -347,6 +1113,7 @@ class Application extends _BaseApplication {
         'category: $category, '
         'enabled: $enabled'
         'forWorkProfile: $forWorkProfile'
+        'profileId: $profileId'
         '}';
   }
 
@@ -366,6 +1133,7 @@ class Application extends _BaseApplication {
           updateTimeMillis == other.updateTimeMillis &&
           category == other.category &&
           forWorkProfile == other.forWorkProfile &&
+          profileId == other.profileId &&
           enabled == other.enabled;
 
   @override
@@ -381,6 +1149,7 @@ class Application extends _BaseApplication {
       updateTimeMillis.hashCode ^
       category.hashCode ^
       forWorkProfile.hashCode ^
+      profileId.hashCode ^
       enabled.hashCode;
 }
 
@@ -392,14 +1161,33 @@ class Application extends _BaseApplication {
 /// Image.memory(app.icon)
 /// ```
 class ApplicationWithIcon extends Application {
-  final String _icon;
+  /// Icon of the application to use in conjunction with [Image.memory]
+  /// (except for the [ApplicationIconFormat.rawRgba] format)
+  final Uint8List icon;
+
+  /// Format of the [icon] bytes
+  final ApplicationIconFormat iconFormat;
+
+  /// Width of the [icon] in pixels
+  final int? iconWidth;
+
+  /// Height of the [icon] in pixels
+  final int? iconHeight;
 
   ApplicationWithIcon._fromMap(Map<dynamic, dynamic> map)
-      : _icon = map['app_icon'] as String,
+      : icon = _parseIcon(map['app_icon']),
+        iconFormat = ApplicationIconOptions.parseFormat(map['app_icon_format']),
+        iconWidth = map['app_icon_width'] as int?,
+        iconHeight = map['app_icon_height'] as int?,
         super._fromMap(map);
 
-  /// Icon of the application to use in conjunction with [Image.memory]
-  Uint8List get icon => base64.decode(_icon);
+  /// Icons used to be sent as Base64 strings
+  static Uint8List _parseIcon(Object? icon) {
+    if (icon is String) {
+      return base64.decode(icon);
+    }
+    return icon as Uint8List;
+  }
 
   @override
   bool operator ==(Object other) =>
@@ -407,10 +1195,128 @@ class ApplicationWithIcon extends Application {
       super == other &&
           other is ApplicationWithIcon &&
           runtimeType == other.runtimeType &&
-          _icon == other._icon;
+          iconFormat == other.iconFormat &&
+          listEquals(icon, other.icon);
+
+  @override
+  int get hashCode => super.hashCode ^ iconFormat.hashCode ^ icon.length;
+}
+
+/// If the [ApplicationIconOptions.asFile] attribute is provided, this class
+/// will be used.
+/// To display an image simply use the [Image.file] widget.
+/// Example:
+///
+/// ```
+/// Image.file(app.iconFile)
+/// ```
+class ApplicationWithIconFile extends Application {
+  /// Path of the icon, in the cache directory of the app
+  final String iconPath;
+
+  /// Format of the icon
+  final ApplicationIconFormat iconFormat;
+
+  /// Width of the icon in pixels
+  final int? iconWidth;
+
+  /// Height of the icon in pixels
+  final int? iconHeight;
+
+  ApplicationWithIconFile._fromMap(Map<dynamic, dynamic> map)
+      : iconPath = map['app_icon_path'] as String,
+        iconFormat = ApplicationIconOptions.parseFormat(map['app_icon_format']),
+        iconWidth = map['app_icon_width'] as int?,
+        iconHeight = map['app_icon_height'] as int?,
+        super._fromMap(map);
+
+  /// Icon of the application to use in conjunction with [Image.file]
+  File get iconFile => File(iconPath);
 
   @override
-  int get hashCode => super.hashCode ^ _icon.hashCode;
+  bool operator ==(Object other) =>
+      identical(this, other) ||
+      super == other &&
+          other is ApplicationWithIconFile &&
+          runtimeType == other.runtimeType &&
+          iconPath == other.iconPath;
+
+  @override
+  int get hashCode => super.hashCode ^ iconPath.hashCode;
+}
+
+/// Allows to cancel a long call (eg: [DeviceApps.getMainProfileInstalledApps]):
+/// the enumeration is stopped between two apps and the call returns an empty
+/// result. A handle must only be given to one call at a time
+class CancellationHandle {
+  final int _requestId = DeviceApps._nextRequestId++;
+  bool _cancelled = false;
+
+  bool get isCancelled => _cancelled;
+
+  /// Returns false if the call is already over
+  Future<bool> cancel() async {
+    _cancelled = true;
+    try {
+      final bool? cancelled = await DeviceApps._methodChannel.invokeMethod<bool>(
+          'cancelRequest', <String, int>{'request_id': _requestId});
+      return cancelled ?? false;
+    } catch (err) {
+      print(err);
+      return false;
+    }
+  }
+}
+
+/// Apps matching a query (see [DeviceApps.queryApps])
+class ApplicationQueryResult {
+  final List<Application> apps;
+
+  /// Number of matching apps (regardless of the offset and the limit)
+  final int total;
+
+  ApplicationQueryResult._fromMap(Map<dynamic, dynamic> map)
+      : apps = DeviceApps._parseApps(map['apps']),
+        total = map['total'] as int? ?? 0;
+
+  ApplicationQueryResult._empty()
+      : apps = List<Application>.empty(),
+        total = 0;
+
+  @override
+  String toString() {
+    return 'ApplicationQueryResult{apps: ${apps.length}, total: $total}';
+  }
+}
+
+/// Apps changed since a token (see [DeviceApps.getChangesSince])
+class ApplicationChanges {
+  /// The token to give to the next call
+  final String token;
+
+  /// If true, the previous token couldn't be used: [added] contains all the
+  /// apps and the previous list has to be replaced
+  final bool reset;
+
+  final List<Application> added;
+  final List<Application> updated;
+
+  /// Package names of the removed apps
+  final List<String> removed;
+
+  ApplicationChanges._fromMap(Map<dynamic, dynamic> map)
+      : token = map['token'] as String,
+        reset = map['reset'] as bool,
+        added = DeviceApps._parseApps(map['added']),
+        updated = DeviceApps._parseApps(map['updated']),
+        removed = (map['removed'] as List<dynamic>).cast<String>();
+
+  @override
+  String toString() {
+    return 'ApplicationChanges{token: $token, reset: $reset, '
+        'added: ${added.length}, updated: ${updated.length}, '
+        'removed: ${removed.length}}';
+  }
 }
 
 /// Represent an event relative to an application, which can be: